@@ -0,0 +1,31 @@
+package net.fortytwo.sesametools.benchmarks;
+
+import org.eclipse.rdf4j.sail.Sail;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.eclipse.rdf4j.sail.nativerdf.NativeStore;
+
+import java.io.File;
+
+/**
+ * The kinds of base Sail over which the wrappers are benchmarked
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public enum BaseStore {
+    MEMORY {
+        Sail create(final File dataDir) {
+            return new MemoryStore();
+        }
+    },
+    NATIVE {
+        Sail create(final File dataDir) {
+            return new NativeStore(dataDir);
+        }
+    };
+
+    /**
+     * @param dataDir an empty directory, for those stores which keep their data on disk
+     * @return a new, uninitialized store
+     */
+    abstract Sail create(File dataDir);
+}
@@ -0,0 +1,101 @@
+package net.fortytwo.sesametools.benchmarks;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.MalformedQueryException;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput and latency of reads by subject through each Sail wrapper:
+ * <code>getStatements</code>, and <code>evaluate</code> of an equivalent query
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReadBenchmark {
+    private static final String QUERY = "SELECT ?p ?o WHERE { ?s ?p ?o }";
+
+    @State(Scope.Benchmark)
+    public static class ReadState extends SailState {
+        @Param({"NONE", "CACHING_COLD", "CACHING_WARM", "DEDUPLICATION", "MAPPING", "CONSTRAINED", "RECORDER",
+                "SINGLE_CONTEXT", "READ_ONLY"})
+        public Wrapper wrapper;
+
+        Wrapper getWrapper() {
+            return wrapper;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Reader {
+        private SailConnection sc;
+        private TupleExpr query;
+        private int next = 0;
+
+        @Setup
+        public void setUp(final ReadState state) throws SailException, MalformedQueryException {
+            sc = state.sail.getConnection();
+            query = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, QUERY, null).getTupleExpr();
+        }
+
+        @TearDown
+        public void tearDown() throws SailException {
+            sc.close();
+        }
+    }
+
+    @Benchmark
+    public void getStatements(final ReadState state, final Reader reader, final Blackhole bh) throws SailException {
+        try (CloseableIteration<? extends Statement, SailException> iter = reader.sc.getStatements(
+                nextSubject(state, reader), null, null, false)) {
+            while (iter.hasNext()) {
+                bh.consume(iter.next());
+            }
+        }
+    }
+
+    @Benchmark
+    public void evaluate(final ReadState state, final Reader reader, final Blackhole bh)
+            throws SailException, QueryEvaluationException {
+        QueryBindingSet bindings = new QueryBindingSet();
+        bindings.addBinding("s", nextSubject(state, reader));
+        try (CloseableIteration<? extends BindingSet, QueryEvaluationException> iter
+                     = reader.sc.evaluate(reader.query, null, bindings, false)) {
+            while (iter.hasNext()) {
+                bh.consume(iter.next());
+            }
+        }
+    }
+
+    private static Resource nextSubject(final ReadState state, final Reader reader) {
+        reader.next = (reader.next + 1) % state.subjects.length;
+        return state.subjects[reader.next];
+    }
+}
@@ -0,0 +1,86 @@
+package net.fortytwo.sesametools.benchmarks;
+
+import net.fortytwo.sesametools.RandomValueFactory;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.sail.Sail;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A wrapped Sail over a base store holding randomly generated statements,
+ * shared by all threads of a benchmark.
+ * Subclasses choose the wrappers to which they apply.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public abstract class SailState {
+    static final String NS = "http://example.org/benchmarks/";
+
+    @Param({"MEMORY", "NATIVE"})
+    public BaseStore baseStore;
+
+    @Param({"10000"})
+    public int statements;
+
+    Sail sail;
+    IRI context;
+
+    // the subjects of the generated statements, which benchmarks look up
+    Resource[] subjects;
+
+    private Sail baseSail;
+    private File dataDir;
+
+    abstract Wrapper getWrapper();
+
+    @Setup
+    public void setUp() throws IOException, SailException {
+        dataDir = Files.createTempDirectory("sesametools-benchmarks").toFile();
+        baseSail = baseStore.create(dataDir);
+        baseSail.initialize();
+        context = SimpleValueFactory.getInstance().createIRI(NS + "graph");
+
+        // Data is written directly to the base Sail, as not every wrapper is writable,
+        // and before the wrapper is initialized, so that wrappers which index the base Sail on startup see it.
+        RandomValueFactory rvf = new RandomValueFactory(baseSail.getValueFactory());
+        subjects = new Resource[statements];
+        SailConnection sc = baseSail.getConnection();
+        try {
+            sc.begin();
+            for (int i = 0; i < statements; i++) {
+                Statement st = rvf.randomStatement(context);
+                sc.addStatement(st.getSubject(), st.getPredicate(), st.getObject(), context);
+                subjects[i] = st.getSubject();
+            }
+            sc.commit();
+        } finally {
+            sc.close();
+        }
+
+        sail = getWrapper().wrap(new UnmanagedSail(baseSail), context);
+        sail.initialize();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, SailException {
+        sail.shutDown();
+        baseSail.shutDown();
+
+        try (Stream<Path> paths = Files.walk(dataDir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package net.fortytwo.sesametools.benchmarks;
+
+import org.eclipse.rdf4j.sail.Sail;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.helpers.SailWrapper;
+
+/**
+ * A view of a base Sail whose life cycle is managed elsewhere, so that a wrapper may be initialized
+ * over a base Sail which has already been initialized and loaded with data.
+ * Initializing and shutting down this Sail have no effect; all other calls pass through to the base Sail.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class UnmanagedSail extends SailWrapper {
+    UnmanagedSail(final Sail baseSail) {
+        super(baseSail);
+    }
+
+    @Override
+    public void initialize() throws SailException {
+        // the base Sail is already initialized
+    }
+
+    @Override
+    public void shutDown() throws SailException {
+        // the base Sail is shut down by its owner
+    }
+}
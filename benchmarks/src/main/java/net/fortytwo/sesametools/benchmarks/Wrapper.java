@@ -0,0 +1,89 @@
+package net.fortytwo.sesametools.benchmarks;
+
+import net.fortytwo.sesametools.SingleContextSail;
+import net.fortytwo.sesametools.caching.CachingSail;
+import net.fortytwo.sesametools.constrained.ConstrainedSail;
+import net.fortytwo.sesametools.deduplication.DeduplicationSail;
+import net.fortytwo.sesametools.mappingsail.MappingSail;
+import net.fortytwo.sesametools.mappingsail.MappingSchema;
+import net.fortytwo.sesametools.readonly.ReadOnlySail;
+import net.fortytwo.sesametools.replay.RecorderSail;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.query.impl.SimpleDataset;
+import org.eclipse.rdf4j.sail.Sail;
+
+/**
+ * The Sail wrappers under benchmark. Except for <code>CACHING_WARM</code>, each is configured so as to pass
+ * all benchmark operations through to the base Sail, so that only the overhead of the wrapper itself is measured
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public enum Wrapper {
+    /**
+     * No wrapper at all; the baseline against which the others are compared
+     */
+    NONE {
+        Sail wrap(final Sail baseSail, final IRI context) {
+            return baseSail;
+        }
+    },
+    /**
+     * A cache of a single statement, so that nearly every lookup misses, and is passed through to the base Sail
+     */
+    CACHING_COLD {
+        Sail wrap(final Sail baseSail, final IRI context) {
+            return new CachingSail(baseSail, true, false, false, 1);
+        }
+    },
+    /**
+     * A cache of the default capacity, which holds every subject once the benchmark has warmed up,
+     * so that lookups are answered from the cache rather than the base Sail
+     */
+    CACHING_WARM {
+        Sail wrap(final Sail baseSail, final IRI context) {
+            return new CachingSail(baseSail, true, false, false, 0);
+        }
+    },
+    DEDUPLICATION {
+        Sail wrap(final Sail baseSail, final IRI context) {
+            return new DeduplicationSail(baseSail);
+        }
+    },
+    MAPPING {
+        Sail wrap(final Sail baseSail, final IRI context) {
+            // identity rewriting rules, which still exercise the rewriting of every value
+            return new MappingSail(baseSail, new MappingSchema());
+        }
+    },
+    CONSTRAINED {
+        Sail wrap(final Sail baseSail, final IRI context) {
+            SimpleDataset graphs = new SimpleDataset();
+            graphs.addDefaultGraph(context);
+            return new ConstrainedSail(baseSail, graphs, graphs, context, false);
+        }
+    },
+    RECORDER {
+        Sail wrap(final Sail baseSail, final IRI context) {
+            // calls are recorded, but discarded, so that the cost of any particular log format is not measured
+            return new RecorderSail(baseSail, call -> {
+            });
+        }
+    },
+    SINGLE_CONTEXT {
+        Sail wrap(final Sail baseSail, final IRI context) {
+            return new SingleContextSail(baseSail, context);
+        }
+    },
+    READ_ONLY {
+        Sail wrap(final Sail baseSail, final IRI context) {
+            return new ReadOnlySail(baseSail);
+        }
+    };
+
+    /**
+     * @param baseSail the Sail to wrap
+     * @param context  the single named graph in which benchmark data is read and written
+     * @return the wrapped Sail
+     */
+    abstract Sail wrap(Sail baseSail, IRI context);
+}
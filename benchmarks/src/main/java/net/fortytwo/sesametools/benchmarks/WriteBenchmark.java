@@ -0,0 +1,95 @@
+package net.fortytwo.sesametools.benchmarks;
+
+import net.fortytwo.sesametools.RandomValueFactory;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput and latency of single-statement transactions through each writable Sail wrapper.
+ * Every statement written is new, so that the cost of writing is measured rather than that of a duplicate.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriteBenchmark {
+    // the number of random predicate-object pairs from which each thread's statements are drawn
+    private static final int PAIRS_PER_WRITER = 10000;
+
+    private static final AtomicInteger WRITER_COUNT = new AtomicInteger(0);
+
+    @State(Scope.Benchmark)
+    public static class WriteState extends SailState {
+        // ReadOnlySail rejects all writes
+        @Param({"NONE", "CACHING_COLD", "CACHING_WARM", "DEDUPLICATION", "MAPPING", "CONSTRAINED", "RECORDER",
+                "SINGLE_CONTEXT"})
+        public Wrapper wrapper;
+
+        Wrapper getWrapper() {
+            return wrapper;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        private SailConnection sc;
+        private ValueFactory valueFactory;
+        private IRI context;
+        private String subjectPrefix;
+        private Statement[] pairs;
+        private long count = 0;
+
+        @Setup
+        public void setUp(final WriteState state) throws SailException {
+            sc = state.sail.getConnection();
+            valueFactory = state.sail.getValueFactory();
+            context = state.context;
+
+            // subjects are unique to each thread and invocation, so that no statement is ever written twice
+            subjectPrefix = SailState.NS + "writer" + WRITER_COUNT.incrementAndGet() + "/";
+
+            RandomValueFactory rvf = new RandomValueFactory(valueFactory);
+            pairs = new Statement[PAIRS_PER_WRITER];
+            for (int i = 0; i < pairs.length; i++) {
+                pairs[i] = rvf.randomStatement(context);
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws SailException {
+            sc.close();
+        }
+    }
+
+    @Benchmark
+    public void addStatement(final Writer writer) throws SailException {
+        long n = writer.count++;
+        IRI subject = writer.valueFactory.createIRI(writer.subjectPrefix + n);
+        Statement pair = writer.pairs[(int) (n % writer.pairs.length)];
+
+        writer.sc.begin();
+        writer.sc.addStatement(subject, pair.getPredicate(), pair.getObject(), writer.context);
+        writer.sc.commit();
+    }
+}
@@ -0,0 +1,81 @@
+package net.fortytwo.sesametools.caching;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses, for each request which the cache cannot answer, the key under which statements are to be loaded:
+ * the requested pattern itself, a more general pattern which subsumes it, or none at all.
+ * <p>
+ * Each shape of key, i.e. each combination of bound positions, is scored by the number of cache hits
+ * it has yielded per statement loaded under it. The candidate of the highest score is chosen.
+ * Shapes with too few loads to judge are tried first, most specific first, and every so often
+ * the requested pattern is chosen regardless of score, so that the statistics keep up with the workload.
+ * Keys which have been found to have too many statements, e.g. <code>(*, rdf:type, *)</code>,
+ * are never chosen, nor are shapes most of whose loads have had too many statements.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class AdaptiveKeySelector {
+    // the number of loads of a shape before its score is trusted
+    private static final long MIN_SAMPLES = 16;
+
+    // shapes with a larger fraction of loads of too many statements are not chosen
+    private static final double MAX_OVERSIZED_FRACTION = 0.5;
+
+    // one in this many selections explores the requested pattern
+    private static final long EXPLORATION_INTERVAL = 64;
+
+    private final CachedKeyRegistry registry;
+    private final CacheStatistics statistics;
+
+    private final AtomicLong selections = new AtomicLong(0);
+
+    AdaptiveKeySelector(final CachedKeyRegistry registry, final CacheStatistics statistics) {
+        this.registry = registry;
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param requested a requested pattern which is not already cached
+     * @return the key to load, or <code>null</code> if the request is better answered by the base Sail
+     */
+    CacheKey select(final CacheKey requested) {
+        boolean explore = 0 == selections.incrementAndGet() % EXPLORATION_INTERVAL;
+        if (explore && !registry.isOversized(requested)) {
+            return requested;
+        }
+
+        CacheKey best = null;
+        double bestScore = 0;
+
+        // candidates are visited from the most general to the most specific
+        for (CacheKey candidate : requested.generalizations()) {
+            if (registry.isOversized(candidate)) {
+                continue;
+            }
+
+            int shape = candidate.shape();
+            long fills = statistics.getShapeFills(shape);
+            long oversized = statistics.getShapeOversizedFills(shape);
+            long samples = fills + oversized;
+
+            double score;
+            if (samples < MIN_SAMPLES) {
+                // not enough data; prefer the most specific such shape, as it is the cheapest to try
+                score = Double.POSITIVE_INFINITY;
+            } else if (oversized > MAX_OVERSIZED_FRACTION * samples) {
+                continue;
+            } else {
+                score = (double) statistics.getShapeHits(shape)
+                        / (statistics.getShapeFillStatements(shape) + fills);
+            }
+
+            if (score > bestScore || (Double.POSITIVE_INFINITY == score && score == bestScore)) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+
+        return best;
+    }
+}
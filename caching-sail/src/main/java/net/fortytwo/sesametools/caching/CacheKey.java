@@ -0,0 +1,135 @@
+package net.fortytwo.sesametools.caching;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An immutable statement pattern identifying a unit of cached data.
+ * A <code>null</code> component acts as a wildcard, so that a key caches all statements which match it.
+ * A key subsumes any more specific key, e.g. the statements of <code>(s, *, *)</code> include
+ * those of <code>(s, p, *)</code>.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public final class CacheKey {
+    private final Resource subject;
+    private final IRI predicate;
+    private final Value object;
+
+    private final int hashCode;
+
+    public CacheKey(final Resource subject,
+                    final IRI predicate,
+                    final Value object) {
+        this.subject = subject;
+        this.predicate = predicate;
+        this.object = object;
+
+        this.hashCode = Objects.hash(subject, predicate, object);
+    }
+
+    /**
+     * @param st a statement
+     * @return the keys under which the statement may be cached:
+     * those of all non-empty combinations of its subject, predicate and object
+     */
+    public static List<CacheKey> keysOf(final Statement st) {
+        return new CacheKey(st.getSubject(), st.getPredicate(), st.getObject()).generalizations();
+    }
+
+    public static CacheKey forSubject(final Resource subject) {
+        return new CacheKey(subject, null, null);
+    }
+
+    public static CacheKey forPredicate(final IRI predicate) {
+        return new CacheKey(null, predicate, null);
+    }
+
+    public static CacheKey forObject(final Value object) {
+        return new CacheKey(null, null, object);
+    }
+
+    public Resource getSubject() {
+        return subject;
+    }
+
+    public IRI getPredicate() {
+        return predicate;
+    }
+
+    public Value getObject() {
+        return object;
+    }
+
+    /**
+     * @return this key and every more general key which binds at least one component,
+     * from the most general to the most specific
+     */
+    public List<CacheKey> generalizations() {
+        int bound = shape();
+
+        List<CacheKey> keys = new ArrayList<>(7);
+        for (int components = 1; components <= 3; components++) {
+            for (int mask = 1; mask <= 7; mask++) {
+                if ((mask & bound) == mask && Integer.bitCount(mask) == components) {
+                    keys.add(mask == bound ? this : new CacheKey(
+                            0 == (mask & 1) ? null : subject,
+                            0 == (mask & 2) ? null : predicate,
+                            0 == (mask & 4) ? null : object));
+                }
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * @return the positions bound by this key, as a bit mask of 1 (subject), 2 (predicate) and 4 (object)
+     */
+    int shape() {
+        return (null == subject ? 0 : 1) | (null == predicate ? 0 : 2) | (null == object ? 0 : 4);
+    }
+
+    /**
+     * @param st a statement
+     * @return whether the statement is one of those cached under this key
+     */
+    public boolean matches(final Statement st) {
+        return (null == subject || subject.equals(st.getSubject()))
+                && (null == predicate || predicate.equals(st.getPredicate()))
+                && (null == object || object.equals(st.getObject()));
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof CacheKey)) {
+            return false;
+        }
+
+        CacheKey k = (CacheKey) other;
+        return hashCode == k.hashCode
+                && Objects.equals(subject, k.subject)
+                && Objects.equals(predicate, k.predicate)
+                && Objects.equals(object, k.object);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + subject + ", " + predicate + ", " + object + ")";
+    }
+}
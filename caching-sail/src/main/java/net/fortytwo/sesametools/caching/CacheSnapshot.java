@@ -0,0 +1,99 @@
+package net.fortytwo.sesametools.caching;
+
+import net.fortytwo.sesametools.BinaryValueInput;
+import net.fortytwo.sesametools.BinaryValueOutput;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.sail.SailException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves the contents of a <code>CachingSail</code> cache to a file, and restores them,
+ * so that the cache is warm after a restart.
+ * The file holds a header, the version of the base Sail at which the snapshot was taken,
+ * the resident keys with their sizes, and the cached statements, all in the encoding of
+ * <code>BinaryValueOutput</code>.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class CacheSnapshot {
+    private static final String MAGIC = "sesametools-cache-snapshot";
+    private static final long FORMAT_VERSION = 1;
+
+    private CacheSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot, replacing any previous snapshot only once the new one is complete
+     */
+    static void save(final File file,
+                     final String version,
+                     final CachedKeyRegistry registry) throws IOException, SailException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            BinaryValueOutput out = new BinaryValueOutput(os);
+            out.writeString(MAGIC);
+            out.writeVarLong(FORMAT_VERSION);
+            out.writeString(version);
+            registry.save(out);
+            out.flush();
+        }
+
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores a snapshot, provided that it was taken at the given version
+     *
+     * @return whether the snapshot was restored
+     */
+    static boolean load(final File file,
+                        final String version,
+                        final CachedKeyRegistry registry,
+                        final ValueFactory valueFactory) throws IOException, SailException {
+        if (!file.exists()) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            BinaryValueInput in;
+            InputStream stream = null;
+            if (channel.size() <= Integer.MAX_VALUE) {
+                in = new BinaryValueInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), valueFactory);
+            } else {
+                stream = new BufferedInputStream(new FileInputStream(file));
+                in = new BinaryValueInput(stream, valueFactory);
+            }
+
+            try {
+                if (!MAGIC.equals(in.readString()) || FORMAT_VERSION != in.readVarLong()) {
+                    throw new IOException("not a cache snapshot: " + file);
+                }
+
+                if (!version.equals(in.readString())) {
+                    // the base Sail has changed since the snapshot was taken
+                    return false;
+                }
+
+                registry.restore(in);
+                return true;
+            } finally {
+                if (null != stream) {
+                    stream.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package net.fortytwo.sesametools.caching;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the activity of a <code>CachingSail</code>, for use in sizing the cache
+ * and in choosing the positions by which it caches.
+ * Lookups are also counted by each bound position of the requested pattern.
+ * Counters may be updated concurrently, and are read without locking,
+ * so a set of values read at one time may not be mutually consistent.
+ * The counts by shape of key are used by adaptive key selection, rather than exposed as metrics,
+ * and are not cleared by <code>reset</code>.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class CacheStatistics implements CacheStatisticsMBean {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder subjectHits = new LongAdder();
+    private final LongAdder subjectMisses = new LongAdder();
+    private final LongAdder predicateHits = new LongAdder();
+    private final LongAdder predicateMisses = new LongAdder();
+    private final LongAdder objectHits = new LongAdder();
+    private final LongAdder objectMisses = new LongAdder();
+    private final LongAdder fills = new LongAdder();
+    private final LongAdder abandonedFills = new LongAdder();
+    private final LongAdder fillStatements = new LongAdder();
+    private final LongAdder fillNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder queryHits = new LongAdder();
+    private final LongAdder queryMisses = new LongAdder();
+
+    // hits, fills, filled statements and fills of too many statements, by the shape of the key concerned.
+    // These are what adaptive key selection has learned of the workload, and are never reset.
+    private final LongAdder[] shapeHits = newAdders();
+    private final LongAdder[] shapeFills = newAdders();
+    private final LongAdder[] shapeFillStatements = newAdders();
+    private final LongAdder[] shapeOversizedFills = newAdders();
+
+    private volatile CachedKeyRegistry registry;
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return 0 == total ? 0 : (double) h / total;
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    public long getSubjectHits() {
+        return subjectHits.sum();
+    }
+
+    public long getSubjectMisses() {
+        return subjectMisses.sum();
+    }
+
+    public long getPredicateHits() {
+        return predicateHits.sum();
+    }
+
+    public long getPredicateMisses() {
+        return predicateMisses.sum();
+    }
+
+    public long getObjectHits() {
+        return objectHits.sum();
+    }
+
+    public long getObjectMisses() {
+        return objectMisses.sum();
+    }
+
+    public long getFills() {
+        return fills.sum();
+    }
+
+    public long getAbandonedFills() {
+        return abandonedFills.sum();
+    }
+
+    public long getFillStatements() {
+        return fillStatements.sum();
+    }
+
+    public long getFillTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(fillNanos.sum());
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public long getResidentStatements() {
+        CachedKeyRegistry r = registry;
+        return null == r ? 0 : r.getResidentStatements();
+    }
+
+    public long getCachedKeys() {
+        CachedKeyRegistry r = registry;
+        return null == r ? 0 : r.getCachedKeys();
+    }
+
+    public long getQueryHits() {
+        return queryHits.sum();
+    }
+
+    public long getQueryMisses() {
+        return queryMisses.sum();
+    }
+
+    public void reset() {
+        for (LongAdder a : new LongAdder[]{hits, misses, negativeHits, subjectHits, subjectMisses,
+                predicateHits, predicateMisses, objectHits, objectMisses, fills, abandonedFills,
+                fillStatements, fillNanos, evictions, refreshes, expirations, queryHits, queryMisses}) {
+            a.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + getHits() + ", misses: " + getMisses() + ", fills: " + getFills()
+                + ", evictions: " + getEvictions() + ", resident statements: " + getResidentStatements();
+    }
+
+    void setRegistry(final CachedKeyRegistry registry) {
+        this.registry = registry;
+    }
+
+    void recordLookup(final CacheKey key, final boolean hit) {
+        (hit ? hits : misses).increment();
+        if (null != key.getSubject()) {
+            (hit ? subjectHits : subjectMisses).increment();
+        }
+        if (null != key.getPredicate()) {
+            (hit ? predicateHits : predicateMisses).increment();
+        }
+        if (null != key.getObject()) {
+            (hit ? objectHits : objectMisses).increment();
+        }
+    }
+
+    /**
+     * @param covering the key which answered a lookup from the cache
+     */
+    void recordHitBy(final CacheKey covering) {
+        shapeHits[covering.shape()].increment();
+    }
+
+    void recordNegativeHit() {
+        negativeHits.increment();
+    }
+
+    void recordFill(final CacheKey key, final long statements, final long nanos) {
+        shapeFills[key.shape()].increment();
+        shapeFillStatements[key.shape()].add(statements);
+        fills.increment();
+        fillStatements.add(statements);
+        fillNanos.add(nanos);
+    }
+
+    void recordAbandonedFill() {
+        abandonedFills.increment();
+    }
+
+    void recordOversizedFill(final CacheKey key) {
+        shapeOversizedFills[key.shape()].increment();
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    void recordRefresh() {
+        refreshes.increment();
+    }
+
+    void recordExpiration() {
+        expirations.increment();
+    }
+
+    void recordQuery(final boolean hit) {
+        (hit ? queryHits : queryMisses).increment();
+    }
+
+    long getShapeHits(final int shape) {
+        return shapeHits[shape].sum();
+    }
+
+    long getShapeFills(final int shape) {
+        return shapeFills[shape].sum();
+    }
+
+    long getShapeFillStatements(final int shape) {
+        return shapeFillStatements[shape].sum();
+    }
+
+    long getShapeOversizedFills(final int shape) {
+        return shapeOversizedFills[shape].sum();
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[8];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
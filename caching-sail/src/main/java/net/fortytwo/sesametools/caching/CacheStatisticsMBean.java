@@ -0,0 +1,98 @@
+package net.fortytwo.sesametools.caching;
+
+/**
+ * The management interface of the statistics of a <code>CachingSail</code>.
+ * Counts are cumulative since the Sail was created or the statistics were last reset.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public interface CacheStatisticsMBean {
+
+    /**
+     * @return the number of statement lookups answered from the cache, including those known to be empty
+     */
+    long getHits();
+
+    /**
+     * @return the number of statement lookups which were not answered from the cache
+     */
+    long getMisses();
+
+    /**
+     * @return the fraction of statement lookups answered from the cache, or 0 if there have been none
+     */
+    double getHitRate();
+
+    /**
+     * @return the number of statement lookups answered by the negative cache
+     */
+    long getNegativeHits();
+
+    long getSubjectHits();
+
+    long getSubjectMisses();
+
+    long getPredicateHits();
+
+    long getPredicateMisses();
+
+    long getObjectHits();
+
+    long getObjectMisses();
+
+    /**
+     * @return the number of keys loaded from the base Sail and admitted to the cache or to the negative cache
+     */
+    long getFills();
+
+    /**
+     * @return the number of loads which were given up, e.g. because their keys had too many statements
+     */
+    long getAbandonedFills();
+
+    /**
+     * @return the total number of statements of completed loads
+     */
+    long getFillStatements();
+
+    /**
+     * @return the total time, in milliseconds, spent reading the statements of completed loads from the base Sail
+     */
+    long getFillTimeMillis();
+
+    /**
+     * @return the number of keys evicted from the cache
+     */
+    long getEvictions();
+
+    /**
+     * @return the number of keys reloaded from the base Sail before their time to live elapsed
+     */
+    long getRefreshes();
+
+    /**
+     * @return the number of keys removed from the cache because their time to live elapsed
+     */
+    long getExpirations();
+
+    /**
+     * @return the number of statements held under resident keys.
+     * A statement held under several keys is counted once for each key.
+     */
+    long getResidentStatements();
+
+    /**
+     * @return the number of resident keys
+     */
+    long getCachedKeys();
+
+    long getQueryHits();
+
+    long getQueryMisses();
+
+    /**
+     * Sets all counts to zero.
+     * The counts by shape of key, from which adaptive key selection learns, are kept.
+     */
+    void reset();
+}
@@ -0,0 +1,895 @@
+package net.fortytwo.sesametools.caching;
+
+import net.fortytwo.sesametools.BinaryValueInput;
+import net.fortytwo.sesametools.BinaryValueOutput;
+import net.fortytwo.sesametools.CompoundCloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * The set of keys whose statements are held in the cache of a <code>CachingSail</code>,
+ * together with the number of statements cached under each key.
+ * Keys are evicted, according to an <code>EvictionPolicy</code>, so as to keep the number of resident
+ * statements within the capacity of the cache.
+ * <p>
+ * The registry is shared by all connections to the Sail.
+ * Concurrent misses on the same key are collapsed into a single load from the base Sail,
+ * which is read in full before its statements are returned to the loading reader,
+ * so that other readers never wait on a consumer of the statements.
+ * Completed loads are buffered and served from memory until they are written to the cache in a single transaction
+ * with other loads, when the buffer is full or the cache would otherwise exceed its capacity.
+ * All modifications of the cache which may affect the completeness of a cached key are made
+ * under an exclusive lock, through a dedicated connection to the cache.
+ * Readers take the shared lock while they check for a key and open an iteration over the cache.
+ * <p>
+ * Writes are applied to the cache only after they have been committed to the base Sail.
+ * An added statement is cached if any resident key covers it, and removed statements are removed
+ * from the cache and from the counts of the keys which covered them.
+ * A load which was begun before such an update is not admitted, as it may have read stale data.
+ * <p>
+ * A lookup is satisfied by any cached key which subsumes the requested key.
+ * Keys with more statements than a configurable limit are never materialized in the cache;
+ * a bounded set of such keys is remembered, so that they are not loaded again and again.
+ * Keys with no statements at all are held in a <code>NegativeCache</code> rather than in the registry,
+ * and are forgotten as soon as a statement matching them is added.
+ * <p>
+ * If a time to live is set, a key is not used to answer lookups once that time has elapsed since its statements
+ * were read from the base Sail, and is removed from the cache by the next call to <code>expire</code>,
+ * unless it has been reloaded by <code>refresh</code> in the meantime.
+ * The negative cache is cleared at the same interval.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class CachedKeyRegistry {
+
+    /**
+     * A load of the statements of a key from the base Sail, which is read in full by the loading thread
+     * before any of the statements are returned to it.
+     * If all of the statements are read, they are admitted to the cache.
+     */
+    class Fill {
+        private final CacheKey key;
+        private final CompletableFuture<Boolean> future;
+        private final long epoch;
+        private final long startTime = System.nanoTime();
+        private final Thread owner = Thread.currentThread();
+
+        private List<Statement> statements = new ArrayList<>();
+        // the time spent reading the statements from the base Sail
+        private long readNanos;
+
+        private Fill(final CacheKey key, final CompletableFuture<Boolean> future, final long epoch) {
+            this.key = key;
+            this.future = future;
+            this.epoch = epoch;
+        }
+
+        /**
+         * Reads the statements of the key and admits them to the cache, unless there are too many of them.
+         * Other readers of the key wait only as long as the statements are being read from the base Sail,
+         * never for the loading thread to consume them.
+         *
+         * @param source all statements of the key, as read from the base Sail
+         * @return an iteration over the statements of the key.
+         * If there are too many statements to cache, those which have not yet been read are streamed from the source.
+         * @throws SailException if the statements cannot be read, or the cache cannot be updated
+         */
+        @SuppressWarnings("unchecked")
+        CloseableIteration<Statement, SailException> load(
+                final CloseableIteration<? extends Statement, SailException> source) throws SailException {
+            List<Statement> loaded = statements;
+            boolean streaming = false;
+            long readStart = System.nanoTime();
+            try {
+                while (source.hasNext()) {
+                    if (loaded.size() >= maxPatternCardinality) {
+                        // too many statements to cache
+                        oversizedKeys.add(key);
+                        statistics.recordOversizedFill(key);
+                        abandon();
+
+                        List<CloseableIteration<Statement, SailException>> parts = new LinkedList<>();
+                        parts.add(new CloseableIteratorIteration<>(loaded.iterator()));
+                        parts.add((CloseableIteration<Statement, SailException>) source);
+                        // the remaining statements are closed by the caller
+                        streaming = true;
+                        return new CompoundCloseableIteration<>(parts);
+                    }
+
+                    loaded.add(source.next());
+                }
+            } catch (RuntimeException e) {
+                abandon();
+                throw e;
+            } finally {
+                if (!streaming) {
+                    source.close();
+                }
+            }
+
+            readNanos = System.nanoTime() - readStart;
+            complete();
+            return new CloseableIteratorIteration<>(loaded.iterator());
+        }
+
+        private void complete() throws SailException {
+            if (null == statements) {
+                return;
+            }
+
+            List<Statement> loaded = statements;
+            statements = null;
+            boolean cached = false;
+            try {
+                cached = enqueue(key, loaded, epoch, startTime);
+                if (cached) {
+                    statistics.recordFill(key, loaded.size(), readNanos);
+                }
+            } finally {
+                finish(cached);
+            }
+        }
+
+        private void abandon() {
+            if (null != statements) {
+                statements = null;
+                statistics.recordAbandonedFill();
+                finish(false);
+            }
+        }
+
+        private void finish(final boolean cached) {
+            future.complete(cached);
+            loads.remove(key, this);
+        }
+    }
+
+    private static final int MAX_OVERSIZED_KEYS = 10000;
+
+    // the longest time a reader waits for another thread to load a key before reading from the base Sail itself
+    private static final long MAX_FILL_WAIT_MILLIS = 1000;
+
+    private final long capacity;
+    private final long maxPatternCardinality;
+    private final long fillBatchSize;
+    private final long timeToLiveNanos;
+    private final EvictionPolicy policy;
+    private final SailConnection cacheWriter;
+    private final ValueFactory valueFactory;
+
+    private final ConcurrentMap<CacheKey, Long> sizes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<CacheKey, Fill> loads = new ConcurrentHashMap<>();
+
+    // the times at which the statements of resident keys were read from the base Sail
+    private final ConcurrentMap<CacheKey, Long> loadTimes = new ConcurrentHashMap<>();
+
+    // resident keys which have answered a lookup since they were loaded; tracked only if keys expire
+    private final Set<CacheKey> accessedKeys = ConcurrentHashMap.newKeySet();
+
+    // completed loads which have not yet been written to the cache
+    private final Map<CacheKey, List<Statement>> pendingFills = new ConcurrentHashMap<>();
+    private final Map<CacheKey, Long> pendingLoadTimes = new ConcurrentHashMap<>();
+    private long pendingFillStatements = 0;
+
+    private final Set<CacheKey> oversizedKeys = Collections.newSetFromMap(Collections.synchronizedMap(
+            new LinkedHashMap<CacheKey, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<CacheKey, Boolean> eldest) {
+                    return size() > MAX_OVERSIZED_KEYS;
+                }
+            }));
+
+    private final NegativeCache negatives;
+    private volatile long negativesClearTime = System.nanoTime();
+    private final CacheStatistics statistics;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock policyLock = new ReentrantLock();
+
+    // Note: a statement cached under more than one key is counted once for each key,
+    // so this is an upper bound on the number of statements in the cache.
+    private final AtomicLong residentStatements = new AtomicLong(0);
+
+    // incremented whenever committed changes are applied to the cache
+    private final AtomicLong writeEpoch = new AtomicLong(0);
+
+    CachedKeyRegistry(final long capacity,
+                      final long maxPatternCardinality,
+                      final long fillBatchSize,
+                      final long timeToLiveMillis,
+                      final EvictionPolicy policy,
+                      final int negativeCapacity,
+                      final SailConnection cacheWriter,
+                      final ValueFactory valueFactory,
+                      final CacheStatistics statistics) {
+        this.capacity = capacity;
+        this.statistics = statistics;
+        this.negatives = new NegativeCache(negativeCapacity);
+        this.valueFactory = valueFactory;
+        this.maxPatternCardinality = maxPatternCardinality;
+        this.fillBatchSize = fillBatchSize;
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        this.policy = policy;
+        this.cacheWriter = cacheWriter;
+    }
+
+    /**
+     * Looks up a key, starting a load of its statements if they are not already in the cache.
+     * If another thread is already loading the key, this method waits for that load to complete
+     * rather than starting a second one.
+     * As a load completes as soon as its statements have been read from the base Sail,
+     * the wait does not depend on how quickly the loading thread consumes them.
+     *
+     * @param key the key to look up
+     * @return a fill for the statements of the key, if the calling thread is to load them,
+     * or <code>null</code> if the key is already cached, or cannot be cached at this time
+     * @throws SailException if the thread is interrupted while waiting for another load
+     */
+    Fill lookup(final CacheKey key) throws SailException {
+        CacheKey covering = findCovering(key);
+        if (null != covering) {
+            statistics.recordLookup(key, true);
+            statistics.recordHitBy(covering);
+            recordAccess(covering);
+            if (timeToLiveNanos > 0) {
+                accessedKeys.add(covering);
+            }
+            return null;
+        }
+
+        if (isKnownEmpty(key)) {
+            statistics.recordLookup(key, true);
+            statistics.recordNegativeHit();
+            return null;
+        }
+
+        statistics.recordLookup(key, false);
+        recordAccess(key);
+
+        if (oversizedKeys.contains(key)) {
+            return null;
+        }
+
+        Fill fill = new Fill(key, new CompletableFuture<>(), writeEpoch.get());
+        Fill existing = loads.putIfAbsent(key, fill);
+        if (null != existing) {
+            // a thread never waits on a load of its own
+            if (existing.owner != Thread.currentThread()) {
+                await(existing.future);
+            }
+            return null;
+        }
+
+        // another thread may have completed a load between the first check and now
+        if (isCached(key)) {
+            fill.finish(true);
+            return null;
+        }
+
+        return fill;
+    }
+
+    /**
+     * @param key a key
+     * @return whether the statements of the key are in the cache, under the key itself or a more general key
+     */
+    boolean isCached(final CacheKey key) {
+        return null != findCovering(key) || isKnownEmpty(key);
+    }
+
+    /**
+     * @param key a key
+     * @return whether the key has recently been found to have too many statements to cache
+     */
+    boolean isOversized(final CacheKey key) {
+        return oversizedKeys.contains(key);
+    }
+
+    /**
+     * @param key a key
+     * @return the loaded statements of the key or of a more general key, if they have not yet been written
+     * to the cache, or <code>null</code>
+     */
+    List<Statement> getPendingFill(final CacheKey key) {
+        for (CacheKey k : key.generalizations()) {
+            List<Statement> statements = pendingFills.get(k);
+            if (null != statements && isFresh(pendingLoadTimes, k)) {
+                return statements;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param key a key
+     * @return whether the key, or a more general key, is known to have no statements
+     */
+    boolean isKnownEmpty(final CacheKey key) {
+        for (CacheKey k : key.generalizations()) {
+            if (negatives.contains(k)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the lock to be held while reading from the cache, so that cached keys are not evicted
+     * between the time they are found in the registry and the time an iteration is opened on the cache
+     */
+    Lock readLock() {
+        return lock.readLock();
+    }
+
+    /**
+     * Applies changes which have been committed to the base Sail to the cache
+     *
+     * @param changes the committed changes, in the order in which they were made
+     * @throws SailException if the cache cannot be updated.
+     *                       In that case, all keys are invalidated, as the cache may no longer agree with the base Sail.
+     */
+    void apply(final PendingChanges changes) throws SailException {
+        lock.writeLock().lock();
+        try {
+            writeEpoch.incrementAndGet();
+
+            cacheWriter.begin();
+            try {
+                // loads are admitted first, so that the changes are applied to them as well
+                flushFillsInTransaction();
+
+                for (PendingChanges.Change change : changes) {
+                    if (change.isAddition()) {
+                        applyAddition(change);
+                    } else {
+                        applyRemoval(change);
+                    }
+                }
+
+                evictInTransaction();
+                cacheWriter.commit();
+            } catch (RuntimeException e) {
+                cacheWriter.rollback();
+                invalidateAll();
+                throw e;
+            } finally {
+                clearPendingFills();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param age a time, in nanoseconds
+     * @return the resident keys whose statements were read from the base Sail at least the given time ago
+     */
+    List<CacheKey> getKeysOlderThan(final long age) {
+        long now = System.nanoTime();
+        List<CacheKey> keys = new ArrayList<>();
+        for (Map.Entry<CacheKey, Long> e : loadTimes.entrySet()) {
+            if (now - e.getValue() >= age) {
+                keys.add(e.getKey());
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * @param key a resident key
+     * @return whether the key has answered a lookup since its statements were last loaded
+     */
+    boolean wasAccessed(final CacheKey key) {
+        return accessedKeys.contains(key);
+    }
+
+    /**
+     * @return a token to be passed to <code>refresh</code> along with statements read after this call
+     */
+    long getWriteEpoch() {
+        return writeEpoch.get();
+    }
+
+    /**
+     * Replaces the cached statements of a resident key with statements newly read from the base Sail,
+     * provided that no changes have been applied to the cache since the given epoch.
+     * Cached statements of the key which are no longer in the base Sail are removed from the cache altogether.
+     *
+     * @param key        a resident key
+     * @param statements all statements of the key, as read from the base Sail
+     * @param loadTime   the time at which reading began
+     * @param epoch      the write epoch at which reading began
+     * @return whether the key was refreshed
+     * @throws SailException if the cache cannot be updated.
+     *                       In that case, all keys are invalidated.
+     */
+    boolean refresh(final CacheKey key,
+                    final List<Statement> statements,
+                    final long loadTime,
+                    final long epoch) throws SailException {
+        lock.writeLock().lock();
+        try {
+            if (writeEpoch.get() != epoch || !sizes.containsKey(key)) {
+                return false;
+            }
+
+            cacheWriter.begin();
+            try {
+                Set<List<Value>> added = new HashSet<>();
+                for (Statement st : statements) {
+                    added.add(quadOf(st));
+                }
+
+                List<Statement> removed = new LinkedList<>();
+                try (CloseableIteration<? extends Statement, SailException> iter = cacheWriter.getStatements(
+                        key.getSubject(), key.getPredicate(), key.getObject(), false)) {
+                    while (iter.hasNext()) {
+                        Statement st = iter.next();
+                        if (!added.remove(quadOf(st))) {
+                            removed.add(st);
+                        }
+                    }
+                }
+
+                for (Statement st : removed) {
+                    cacheWriter.removeStatements(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+                    count(st, -1);
+                }
+                for (Statement st : statements) {
+                    if (added.remove(quadOf(st))) {
+                        cacheWriter.addStatement(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+                        count(st, 1);
+                    }
+                }
+
+                loadTimes.put(key, loadTime);
+                accessedKeys.remove(key);
+                evictInTransaction();
+                cacheWriter.commit();
+            } catch (RuntimeException e) {
+                cacheWriter.rollback();
+                invalidateAll();
+                throw e;
+            }
+
+            statistics.recordRefresh();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes from the cache all keys whose time to live has elapsed,
+     * and clears the negative cache if it was last cleared at least the time to live ago
+     *
+     * @throws SailException if the cache cannot be updated.
+     *                       In that case, all keys are invalidated.
+     */
+    void expire() throws SailException {
+        if (0 == timeToLiveNanos) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            long now = System.nanoTime();
+            if (now - negativesClearTime >= timeToLiveNanos) {
+                negatives.clear();
+                negativesClearTime = now;
+            }
+
+            cacheWriter.begin();
+            try {
+                expireInTransaction();
+                cacheWriter.commit();
+            } catch (RuntimeException e) {
+                cacheWriter.rollback();
+                invalidateAll();
+                throw e;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    long getResidentStatements() {
+        return residentStatements.get();
+    }
+
+    long getCachedKeys() {
+        return sizes.size();
+    }
+
+    /**
+     * Writes the resident keys and the statements of the cache, admitting any pending loads first
+     *
+     * @param out the output to which to write
+     * @throws IOException   if the output cannot be written
+     * @throws SailException if the cache cannot be read
+     */
+    void save(final BinaryValueOutput out) throws IOException, SailException {
+        lock.writeLock().lock();
+        try {
+            if (!pendingFills.isEmpty()) {
+                flushFills();
+            }
+
+            out.writeVarLong(sizes.size());
+            for (Map.Entry<CacheKey, Long> e : sizes.entrySet()) {
+                CacheKey key = e.getKey();
+                out.writeValue(key.getSubject());
+                out.writeValue(key.getPredicate());
+                out.writeValue(key.getObject());
+                out.writeVarLong(e.getValue());
+            }
+
+            try (CloseableIteration<? extends Statement, SailException> iter
+                         = cacheWriter.getStatements(null, null, null, false)) {
+                while (iter.hasNext()) {
+                    Statement st = iter.next();
+                    out.writeByte(1);
+                    out.writeValue(st.getSubject());
+                    out.writeValue(st.getPredicate());
+                    out.writeValue(st.getObject());
+                    out.writeValue(st.getContext());
+                }
+            }
+            out.writeByte(0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads keys and statements written by <code>save</code> into the cache, which should be empty
+     *
+     * @param in the input from which to read
+     * @throws IOException   if the input cannot be read. In that case, the cache is left empty.
+     * @throws SailException if the cache cannot be written
+     */
+    void restore(final BinaryValueInput in) throws IOException, SailException {
+        lock.writeLock().lock();
+        try {
+            cacheWriter.begin();
+            try {
+                long keys = in.readVarLong();
+                for (long i = 0; i < keys; i++) {
+                    CacheKey key = new CacheKey((Resource) in.readValue(), (IRI) in.readValue(), in.readValue());
+                    long size = in.readVarLong();
+                    sizes.put(key, size);
+                    loadTimes.put(key, System.nanoTime());
+                    residentStatements.addAndGet(size);
+                    withPolicy(() -> policy.recordAdmission(key, size));
+                }
+
+                while (0 != in.readByte()) {
+                    cacheWriter.addStatement(
+                            (Resource) in.readValue(), (IRI) in.readValue(), in.readValue(), (Resource) in.readValue());
+                }
+
+                evictInTransaction();
+                cacheWriter.commit();
+            } catch (IOException | RuntimeException e) {
+                cacheWriter.rollback();
+                for (CacheKey key : sizes.keySet()) {
+                    remove(key);
+                }
+                throw e;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void close() throws SailException {
+        clearPendingFills();
+        cacheWriter.close();
+    }
+
+    private boolean enqueue(final CacheKey key,
+                            final List<Statement> statements,
+                            final long epoch,
+                            final long loadTime) throws SailException {
+        lock.writeLock().lock();
+        try {
+            if (writeEpoch.get() != epoch) {
+                // the statements may have been changed in the base Sail since they were loaded
+                return false;
+            }
+
+            if (statements.isEmpty()) {
+                negatives.add(key);
+                return true;
+            }
+
+            pendingFills.put(key, statements);
+            pendingLoadTimes.put(key, loadTime);
+            pendingFillStatements += statements.size();
+            if (pendingFillStatements >= fillBatchSize
+                    || residentStatements.get() + pendingFillStatements > capacity) {
+                flushFills();
+            }
+
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void flushFills() throws SailException {
+        cacheWriter.begin();
+        try {
+            flushFillsInTransaction();
+            evictInTransaction();
+            cacheWriter.commit();
+        } catch (RuntimeException e) {
+            cacheWriter.rollback();
+            for (CacheKey key : pendingFills.keySet()) {
+                remove(key);
+            }
+            throw e;
+        } finally {
+            clearPendingFills();
+        }
+    }
+
+    private void flushFillsInTransaction() throws SailException {
+        // expired keys are removed first, so that their stale statements are not taken to belong to new keys
+        expireInTransaction();
+
+        for (Map.Entry<CacheKey, List<Statement>> e : pendingFills.entrySet()) {
+            CacheKey key = e.getKey();
+            if (sizes.containsKey(key) || !isFresh(pendingLoadTimes, key)) {
+                continue;
+            }
+
+            for (Statement st : e.getValue()) {
+                cacheWriter.addStatement(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+            }
+
+            long size = e.getValue().size();
+            sizes.put(key, size);
+            loadTimes.put(key, pendingLoadTimes.get(key));
+            residentStatements.addAndGet(size);
+            withPolicy(() -> policy.recordAdmission(key, size));
+        }
+    }
+
+    private void clearPendingFills() {
+        pendingFills.clear();
+        pendingLoadTimes.clear();
+        pendingFillStatements = 0;
+    }
+
+    private void applyAddition(final PendingChanges.Change change) throws SailException {
+        Resource[] contexts = 0 == change.getContexts().length ? new Resource[]{null} : change.getContexts();
+        for (Resource context : contexts) {
+            Statement st = valueFactory.createStatement(
+                    change.getSubject(), change.getPredicate(), change.getObject(), context);
+            for (CacheKey key : CacheKey.keysOf(st)) {
+                negatives.remove(key);
+            }
+
+            if (isCovered(st) && !cacheWriter.hasStatement(
+                    st.getSubject(), st.getPredicate(), st.getObject(), false, context)) {
+                cacheWriter.addStatement(st.getSubject(), st.getPredicate(), st.getObject(), context);
+                count(st, 1);
+            }
+        }
+    }
+
+    private void applyRemoval(final PendingChanges.Change change) throws SailException {
+        if (null == change.getSubject() && null == change.getPredicate() && null == change.getObject()
+                && 0 == change.getContexts().length) {
+            // everything has been removed
+            cacheWriter.clear();
+            for (CacheKey key : sizes.keySet()) {
+                remove(key);
+            }
+            return;
+        }
+
+        List<Statement> removed = new LinkedList<>();
+        try (CloseableIteration<? extends Statement, SailException> iter = cacheWriter.getStatements(
+                change.getSubject(), change.getPredicate(), change.getObject(), false, change.getContexts())) {
+            while (iter.hasNext()) {
+                removed.add(iter.next());
+            }
+        }
+
+        for (Statement st : removed) {
+            cacheWriter.removeStatements(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+            count(st, -1);
+        }
+    }
+
+    private void count(final Statement st, final long delta) {
+        for (CacheKey key : CacheKey.keysOf(st)) {
+            if (null != sizes.computeIfPresent(key, (k, size) -> size + delta)) {
+                residentStatements.addAndGet(delta);
+            }
+        }
+    }
+
+    private void invalidateAll() throws SailException {
+        negatives.clear();
+        for (CacheKey key : sizes.keySet()) {
+            remove(key);
+        }
+
+        cacheWriter.begin();
+        cacheWriter.clear();
+        cacheWriter.commit();
+    }
+
+    private void evictInTransaction() throws SailException {
+        while (residentStatements.get() > capacity) {
+            CacheKey victim = fromPolicy(policy::selectVictim);
+            if (null == victim) {
+                break;
+            }
+
+            if (remove(victim)) {
+                statistics.recordEviction();
+                removeUncovered(victim);
+            }
+        }
+    }
+
+    private void expireInTransaction() throws SailException {
+        if (0 == timeToLiveNanos) {
+            return;
+        }
+
+        List<CacheKey> expired = new ArrayList<>();
+        for (CacheKey key : sizes.keySet()) {
+            if (!isFresh(loadTimes, key)) {
+                expired.add(key);
+            }
+        }
+
+        // all expired keys are removed before any statements, so that they do not keep each other's statements
+        for (CacheKey key : expired) {
+            remove(key);
+            statistics.recordExpiration();
+        }
+        for (CacheKey key : expired) {
+            removeUncovered(key);
+        }
+    }
+
+    // removes those statements of a key which no resident key covers
+    private void removeUncovered(final CacheKey key) throws SailException {
+        List<Statement> toRemove = new LinkedList<>();
+        try (CloseableIteration<? extends Statement, SailException> iter = cacheWriter.getStatements(
+                key.getSubject(), key.getPredicate(), key.getObject(), false)) {
+            while (iter.hasNext()) {
+                Statement st = iter.next();
+                if (!isCovered(st)) {
+                    toRemove.add(st);
+                }
+            }
+        }
+
+        for (Statement st : toRemove) {
+            cacheWriter.removeStatements(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+        }
+    }
+
+    private boolean remove(final CacheKey key) {
+        Long size = sizes.remove(key);
+        loadTimes.remove(key);
+        accessedKeys.remove(key);
+        withPolicy(() -> policy.recordRemoval(key));
+        if (null == size) {
+            return false;
+        }
+
+        residentStatements.addAndGet(-size);
+        return true;
+    }
+
+    private void recordAccess(final CacheKey key) {
+        // Accesses are recorded on a best-effort basis, so that readers never queue up behind the policy.
+        if (policyLock.tryLock()) {
+            try {
+                policy.recordAccess(key);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    private void withPolicy(final Runnable r) {
+        policyLock.lock();
+        try {
+            r.run();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private <T> T fromPolicy(final Supplier<T> s) {
+        policyLock.lock();
+        try {
+            return s.get();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private static void await(final CompletableFuture<Boolean> future) throws SailException {
+        try {
+            future.get(MAX_FILL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SailException(e);
+        } catch (ExecutionException | TimeoutException e) {
+            // the loading thread reports its own failure; this thread falls back to the base Sail
+        }
+    }
+
+    private CacheKey findCovering(final CacheKey key) {
+        for (CacheKey k : key.generalizations()) {
+            if ((sizes.containsKey(k) && isFresh(loadTimes, k))
+                    || (pendingFills.containsKey(k) && isFresh(pendingLoadTimes, k))) {
+                return k;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isFresh(final Map<CacheKey, Long> times, final CacheKey key) {
+        Long loadTime = times.get(key);
+        return null != loadTime && (0 == timeToLiveNanos || System.nanoTime() - loadTime < timeToLiveNanos);
+    }
+
+    private static List<Value> quadOf(final Statement st) {
+        return Arrays.asList(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+    }
+
+    private boolean isCovered(final Statement st) {
+        for (CacheKey key : CacheKey.keysOf(st)) {
+            if (sizes.containsKey(key)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
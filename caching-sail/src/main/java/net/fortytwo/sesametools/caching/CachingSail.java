@@ -1,9 +1,6 @@
 
 package net.fortytwo.sesametools.caching;
 
-import org.eclipse.rdf4j.model.IRI;
-import org.eclipse.rdf4j.model.Resource;
-import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.sail.Sail;
 import org.eclipse.rdf4j.sail.SailConnection;
@@ -11,50 +8,112 @@ import org.eclipse.rdf4j.sail.SailException;
 import org.eclipse.rdf4j.sail.StackableSail;
 import org.eclipse.rdf4j.sail.helpers.AbstractSail;
 import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.File;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 
 /**
  * A <code>Sail</code> which caches statements retrieved from a base <code>Sail</code>
- * in an internal <code>MemoryStore</code>, speeding up subsequent queries for the same data.
+ * in an internal <code>MemoryStore</code> or <code>DictionaryStore</code>,
+ * speeding up subsequent queries for the same data.
+ * Data is cached by statement pattern, e.g. <code>(s, *, *)</code> or <code>(s, p, *)</code>,
+ * and a query is answered from the cache if any cached pattern subsumes it.
+ * The number of cached statements is kept within a fixed capacity by evicting cached keys
+ * according to an <code>EvictionPolicy</code>.
+ * The results of small queries are also cached, until a committed change affects them,
+ * as are the namespaces, context IDs and sizes of the base Sail.
+ * The contents of the cache may be saved on shutdown and restored on startup.
+ * If the base Sail is also modified by other writers, a time to live may be set,
+ * after which cached data is reloaded or discarded.
  *
  * @author Joshua Shinavier (http://fortytwo.net)
  */
 // Note: assumes that the value factories of the base Sail and the MemoryStore
 // cache are compatible.
 public class CachingSail extends AbstractSail implements StackableSail {
+    private static final Logger LOG = LoggerFactory.getLogger(CachingSail.class);
+
     private static final long DEFAULT_CAPACITY = 1000000L;
+    private static final int DEFAULT_NEGATIVE_CAPACITY = 65536;
+    private static final long DEFAULT_FILL_BATCH_SIZE = 10000L;
+    private static final int DEFAULT_QUERY_CACHE_CAPACITY = 1000;
+    private static final int DEFAULT_MAX_QUERY_RESULT_SIZE = 1000;
+
+    /**
+     * The kind of store in which cached statements are held
+     */
+    public enum CacheStore {
+        /**
+         * A <code>MemoryStore</code>, which supports snapshot isolation
+         */
+        MEMORY_STORE,
+        /**
+         * A <code>DictionaryStore</code>, which holds many more statements in the same amount of memory
+         */
+        DICTIONARY
+    }
 
     private boolean cacheSubject, cachePredicate, cacheObject;
+    private final CacheStore cacheStore;
 
     private Sail baseSail;
     private Sail cache;
 
-    private Set<Resource> cachedSubjects;
-    private Set<IRI> cachedPredicates;
-    private Set<Value> cachedObjects;
+    private CachedKeyRegistry registry;
+    private EvictionPolicy evictionPolicy;
+    private QueryResultCache queryCache;
+    private boolean adaptiveKeySelection = false;
+    private AdaptiveKeySelector keySelector;
+    private KeyRefresher refresher;
+    private boolean metadataCaching = true;
+    private MetadataCache metadataCache;
+
+    private final CacheStatistics statistics = new CacheStatistics();
+    private String mbeanName;
+
+    private File snapshotFile;
+    private VersionMarker versionMarker;
 
     private long capacity;
+    private long maxPatternCardinality;
+    private int negativeCacheCapacity = DEFAULT_NEGATIVE_CAPACITY;
+    private long fillBatchSize = DEFAULT_FILL_BATCH_SIZE;
+    private int queryCacheCapacity = DEFAULT_QUERY_CACHE_CAPACITY;
+    private int maxQueryResultSize = DEFAULT_MAX_QUERY_RESULT_SIZE;
+    private long timeToLiveMillis = 0;
 
     public CachingSail(final Sail baseSail,
                        final boolean cacheSubject,
                        final boolean cachePredicate,
                        final boolean cacheObject,
                        final long capacity) {
+        this(baseSail, cacheSubject, cachePredicate, cacheObject, capacity, CacheStore.MEMORY_STORE);
+    }
+
+    public CachingSail(final Sail baseSail,
+                       final boolean cacheSubject,
+                       final boolean cachePredicate,
+                       final boolean cacheObject,
+                       final long capacity,
+                       final CacheStore cacheStore) {
         this.baseSail = baseSail;
         this.cacheSubject = cacheSubject;
         this.cachePredicate = cachePredicate;
         this.cacheObject = cacheObject;
+        this.cacheStore = cacheStore;
 
         this.capacity = (capacity <= 0) ? DEFAULT_CAPACITY : capacity;
+        this.maxPatternCardinality = this.capacity;
     }
 
     public SailConnection getConnectionInternal() throws SailException {
         return new CachingSailConnection(this, baseSail, cache,
-                cacheSubject, cachePredicate, cacheObject,
-                cachedSubjects, cachedPredicates, cachedObjects);
+                cacheSubject, cachePredicate, cacheObject, registry, queryCache, keySelector, metadataCache);
     }
 
     @Override
@@ -70,19 +129,50 @@ public class CachingSail extends AbstractSail implements StackableSail {
     public void initializeInternal() throws SailException {
         baseSail.initialize();
 
-        cache = new MemoryStore();
+        cache = CacheStore.DICTIONARY == cacheStore ? new DictionaryStore() : new MemoryStore();
         cache.initialize();
 
-        if (cacheSubject) {
-            cachedSubjects = new HashSet<>();
+        if (null == evictionPolicy) {
+            evictionPolicy = new TinyLfuEvictionPolicy(capacity);
         }
 
-        if (cachePredicate) {
-            cachedPredicates = new HashSet<>();
+        registry = new CachedKeyRegistry(capacity, maxPatternCardinality, fillBatchSize, timeToLiveMillis,
+                evictionPolicy,
+                negativeCacheCapacity, cache.getConnection(), cache.getValueFactory(), statistics);
+        statistics.setRegistry(registry);
+
+        keySelector = adaptiveKeySelection ? new AdaptiveKeySelector(registry, statistics) : null;
+
+        if (null != snapshotFile && null != versionMarker) {
+            String version = versionMarker.getVersion();
+            if (null != version) {
+                try {
+                    if (CacheSnapshot.load(snapshotFile, version, registry, cache.getValueFactory())) {
+                        LOG.info("restored cache snapshot from {}", snapshotFile);
+                    }
+                } catch (IOException e) {
+                    // a snapshot is only an optimization; start with a cold cache
+                    LOG.warn("failed to restore cache snapshot from " + snapshotFile, e);
+                }
+            }
         }
 
-        if (cacheObject) {
-            cachedObjects = new HashSet<>();
+        queryCache = queryCacheCapacity > 0
+                ? new QueryResultCache(queryCacheCapacity, maxQueryResultSize, timeToLiveMillis, statistics) : null;
+
+        metadataCache = metadataCaching ? new MetadataCache(timeToLiveMillis) : null;
+
+        if (timeToLiveMillis > 0) {
+            refresher = new KeyRefresher(registry, baseSail, timeToLiveMillis, maxPatternCardinality);
+            refresher.start();
+        }
+
+        if (null != mbeanName) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, new ObjectName(mbeanName));
+            } catch (JMException e) {
+                throw new SailException("failed to register cache statistics as " + mbeanName, e);
+            }
         }
     }
 
@@ -97,8 +187,43 @@ public class CachingSail extends AbstractSail implements StackableSail {
     }
 
     public void shutDownInternal() throws SailException {
-        baseSail.shutDown();
-        cache.shutDown();
+        // the base Sail and the cache are shut down even if an earlier step fails
+        try {
+            if (null != refresher) {
+                try {
+                    refresher.stop();
+                } finally {
+                    refresher = null;
+                }
+            }
+
+            if (null != mbeanName) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(mbeanName));
+                } catch (JMException e) {
+                    throw new SailException("failed to unregister cache statistics " + mbeanName, e);
+                }
+            }
+
+            if (null != snapshotFile && null != versionMarker) {
+                // the version is taken before the base Sail is shut down, and after all changes have been committed
+                String version = versionMarker.getVersion();
+                if (null != version) {
+                    try {
+                        CacheSnapshot.save(snapshotFile, version, registry);
+                    } catch (IOException e) {
+                        LOG.warn("failed to save cache snapshot to " + snapshotFile, e);
+                    }
+                }
+            }
+        } finally {
+            try {
+                baseSail.shutDown();
+            } finally {
+                registry.close();
+                cache.shutDown();
+            }
+        }
     }
 
     public Sail getBaseSail() {
@@ -112,4 +237,204 @@ public class CachingSail extends AbstractSail implements StackableSail {
     public long getCapacity() {
         return this.capacity;
     }
+
+    /**
+     * Sets the maximum number of statements which a single statement pattern may have if it is to be cached.
+     * Patterns with more statements are always answered from the base Sail.
+     * By default, this is the capacity of the cache.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param maxPatternCardinality the maximum number of statements of a cached pattern
+     */
+    public void setMaxPatternCardinality(final long maxPatternCardinality) {
+        this.maxPatternCardinality = maxPatternCardinality;
+    }
+
+    public long getMaxPatternCardinality() {
+        return maxPatternCardinality;
+    }
+
+    /**
+     * Sets the maximum number of statement patterns which are remembered to have no statements,
+     * so that queries for absent data are answered without consulting the base Sail.
+     * Each pattern occupies eight bytes. A capacity of 0 disables the negative cache.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param negativeCacheCapacity the maximum number of empty patterns to remember
+     */
+    public void setNegativeCacheCapacity(final int negativeCacheCapacity) {
+        this.negativeCacheCapacity = negativeCacheCapacity;
+    }
+
+    public int getNegativeCacheCapacity() {
+        return negativeCacheCapacity;
+    }
+
+    /**
+     * Sets the number of loaded statements which are buffered before they are written to the cache
+     * in a single transaction. Buffered statements are served from memory in the meantime.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param fillBatchSize the number of statements per cache transaction
+     */
+    public void setFillBatchSize(final long fillBatchSize) {
+        this.fillBatchSize = fillBatchSize;
+    }
+
+    public long getFillBatchSize() {
+        return fillBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of queries whose results are cached.
+     * A capacity of 0 disables the query result cache.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param queryCacheCapacity the maximum number of cached queries
+     */
+    public void setQueryCacheCapacity(final int queryCacheCapacity) {
+        this.queryCacheCapacity = queryCacheCapacity;
+    }
+
+    public int getQueryCacheCapacity() {
+        return queryCacheCapacity;
+    }
+
+    /**
+     * Sets the maximum number of results of a query whose results are cached.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param maxQueryResultSize the maximum number of results of a cached query
+     */
+    public void setMaxQueryResultSize(final int maxQueryResultSize) {
+        this.maxQueryResultSize = maxQueryResultSize;
+    }
+
+    public int getMaxQueryResultSize() {
+        return maxQueryResultSize;
+    }
+
+    /**
+     * @return the statistics of this Sail, which are kept from the time it is created
+     */
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Sets a JMX object name, e.g. <code>net.fortytwo.sesametools:type=CachingSail,name=main</code>,
+     * under which the statistics of this Sail are registered with the platform MBean server
+     * for as long as the Sail is initialized.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param mbeanName the object name, or <code>null</code> if the statistics are not to be registered
+     */
+    public void setMBeanName(final String mbeanName) {
+        this.mbeanName = mbeanName;
+    }
+
+    public String getMBeanName() {
+        return mbeanName;
+    }
+
+    /**
+     * Sets a file to which the contents of the cache are saved when the Sail is shut down,
+     * and from which they are restored when it is initialized, if the base Sail has not changed in the meantime.
+     * Snapshots are taken and restored only if a version marker has also been set.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param snapshotFile the snapshot file, or <code>null</code> for no snapshots
+     */
+    public void setSnapshotFile(final File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * Sets the source of the version of the base Sail, against which a cache snapshot is checked for staleness.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param versionMarker the version marker
+     */
+    public void setVersionMarker(final VersionMarker versionMarker) {
+        this.versionMarker = versionMarker;
+    }
+
+    public VersionMarker getVersionMarker() {
+        return versionMarker;
+    }
+
+    /**
+     * Enables or disables adaptive key selection.
+     * When it is enabled, the positions given to the constructor are ignored; instead, for each request,
+     * the statements of the requested pattern, of a more general pattern, or of no pattern at all are cached,
+     * according to the hit rates per cached statement observed for each combination of bound positions.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param adaptiveKeySelection whether to choose cache keys adaptively
+     */
+    public void setAdaptiveKeySelection(final boolean adaptiveKeySelection) {
+        this.adaptiveKeySelection = adaptiveKeySelection;
+    }
+
+    public boolean isAdaptiveKeySelection() {
+        return adaptiveKeySelection;
+    }
+
+    /**
+     * Sets the time for which cached data is considered current, for use when the base Sail is modified
+     * other than through this Sail.
+     * Cached statement patterns which are read during this time are reloaded in the background
+     * shortly before it elapses, so that their readers do not wait for the base Sail;
+     * other patterns, as well as cached query results and remembered empty patterns, are discarded.
+     * By default, cached data does not expire.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param timeToLiveMillis the time to live of cached data, in milliseconds, or 0 for no expiration
+     */
+    public void setTimeToLive(final long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    public long getTimeToLive() {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * Enables or disables the caching of namespaces, context IDs and sizes,
+     * which are otherwise retrieved from the base Sail on every request.
+     * Metadata caching is enabled by default.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param metadataCaching whether to cache metadata
+     */
+    public void setMetadataCaching(final boolean metadataCaching) {
+        this.metadataCaching = metadataCaching;
+    }
+
+    public boolean isMetadataCaching() {
+        return metadataCaching;
+    }
+
+    public CacheStore getCacheStore() {
+        return cacheStore;
+    }
+
+    /**
+     * Sets the policy by which cached keys are evicted when the cache exceeds its capacity.
+     * If no policy is set, a <code>TinyLfuEvictionPolicy</code> is used.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param policy the eviction policy
+     */
+    public void setEvictionPolicy(final EvictionPolicy policy) {
+        this.evictionPolicy = policy;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
 }
@@ -1,6 +1,9 @@
 package net.fortytwo.sesametools.caching;
 
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import net.fortytwo.sesametools.CompoundCloseableIteration;
+import net.fortytwo.sesametools.EmptyCloseableIteration;
 import net.fortytwo.sesametools.SailConnectionTripleSource;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Namespace;
@@ -21,9 +24,11 @@ import org.eclipse.rdf4j.sail.SailException;
 import org.eclipse.rdf4j.sail.helpers.AbstractSail;
 import org.eclipse.rdf4j.sail.helpers.AbstractSailConnection;
 
-import java.util.Set;
-
-// TODO: define rollback behavior
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Consumer;
 
 // TODO: investigate inference
 
@@ -38,11 +43,15 @@ public class CachingSailConnection extends AbstractSailConnection {
     private SailConnection baseSailConnection;
     private SailConnection cacheConnection;
 
-    private Set<Resource> cachedSubjects;
-    private Set<IRI> cachedPredicates;
-    private Set<Value> cachedObjects;
+    private CachedKeyRegistry registry;
+    private QueryResultCache queryCache;
+    private AdaptiveKeySelector keySelector;
+    private MetadataCache metadataCache;
+
+    private final PendingChanges pendingChanges = new PendingChanges();
 
-    private boolean uncommittedChanges = false;
+    // whether namespaces have been changed in the current transaction
+    private boolean namespacesChanged = false;
 
     public CachingSailConnection(final AbstractSail sail,
                                  final Sail baseSail,
@@ -50,9 +59,10 @@ public class CachingSailConnection extends AbstractSailConnection {
                                  final boolean cacheSubject,
                                  final boolean cachePredicate,
                                  final boolean cacheObject,
-                                 final Set<Resource> cachedSubjects,
-                                 final Set<IRI> cachedPredicates,
-                                 final Set<Value> cachedObjects) throws SailException {
+                                 final CachedKeyRegistry registry,
+                                 final QueryResultCache queryCache,
+                                 final AdaptiveKeySelector keySelector,
+                                 final MetadataCache metadataCache) throws SailException {
         super(sail);
         this.cacheSubject = cacheSubject;
         this.cachePredicate = cachePredicate;
@@ -60,34 +70,34 @@ public class CachingSailConnection extends AbstractSailConnection {
         baseSailConnection = baseSail.getConnection();
         cacheConnection = cache.getConnection();
 
-        this.cachedSubjects = cachedSubjects;
-        this.cachedPredicates = cachedPredicates;
-        this.cachedObjects = cachedObjects;
+        this.registry = registry;
+        this.queryCache = queryCache;
+        this.keySelector = keySelector;
+        this.metadataCache = metadataCache;
 
         this.valueFactory = baseSail.getValueFactory();
     }
 
     // Note: adding statements does not change the configuration of cached
-    // values.
+    // values. A new statement is written to the cache, once committed, only if it belongs to a cached key.
     protected void addStatementInternal(final Resource subj,
                                      final IRI pred,
                                      final Value obj,
                                      final Resource... contexts) throws SailException {
-        cacheConnection.addStatement(subj, pred, obj, contexts);
         baseSailConnection.addStatement(subj, pred, obj, contexts);
-        uncommittedChanges = true;
+        pendingChanges.add(subj, pred, obj, contexts);
     }
 
     // Note: clearing statements does not change the configuration of cached
     // values.
     protected void clearInternal(final Resource... contexts) throws SailException {
-        cacheConnection.clear(contexts);
         baseSailConnection.clear(contexts);
-        uncommittedChanges = true;
+        pendingChanges.remove(null, null, null, contexts);
     }
 
     protected void clearNamespacesInternal() throws SailException {
         baseSailConnection.clearNamespaces();
+        namespacesChanged = true;
     }
 
     protected void closeInternal() throws SailException {
@@ -96,10 +106,34 @@ public class CachingSailConnection extends AbstractSailConnection {
     }
 
     protected void commitInternal() throws SailException {
-        if (uncommittedChanges) {
-            cacheConnection.commit();
-            baseSailConnection.commit();
-            uncommittedChanges = false;
+        baseSailConnection.commit();
+
+        // the caches are updated only once the base Sail has accepted the changes
+        if (namespacesChanged) {
+            namespacesChanged = false;
+            if (null != metadataCache) {
+                metadataCache.invalidateNamespaces();
+            }
+        }
+
+        if (!pendingChanges.isEmpty()) {
+            try {
+                if (null != metadataCache) {
+                    metadataCache.invalidateStatements();
+                }
+
+                // Query results are invalidated only once the statement cache has been updated,
+                // so that results computed from the old statements in the meantime are not admitted.
+                try {
+                    registry.apply(pendingChanges);
+                } finally {
+                    if (null != queryCache) {
+                        queryCache.invalidate(pendingChanges);
+                    }
+                }
+            } finally {
+                pendingChanges.discard();
+            }
         }
     }
 
@@ -108,6 +142,54 @@ public class CachingSailConnection extends AbstractSailConnection {
             final Dataset dataSet,
             final BindingSet bindingSet,
             final boolean includeInferred) throws SailException {
+        // results are neither cached nor served from the cache while this connection has uncommitted changes
+        if (null == queryCache || !pendingChanges.isEmpty()) {
+            return evaluateUncached(tupleExpr, dataSet, bindingSet, includeInferred);
+        }
+
+        QueryResultCache.Key key = QueryResultCache.keyOf(tupleExpr, dataSet, bindingSet, includeInferred);
+        List<BindingSet> cached = queryCache.get(key);
+        if (null != cached) {
+            return new CloseableIteratorIteration<>(cached.iterator());
+        }
+
+        long epoch = queryCache.getEpoch();
+        CloseableIteration<BindingSet, QueryEvaluationException> results
+                = evaluateUncached(tupleExpr, dataSet, bindingSet, includeInferred);
+
+        // read ahead just far enough to tell whether the results are small enough to cache
+        List<BindingSet> buffer = new ArrayList<>();
+        boolean streaming = false;
+        try {
+            while (buffer.size() <= queryCache.getMaxResultSize() && results.hasNext()) {
+                buffer.add(results.next());
+            }
+
+            CloseableIteration<BindingSet, QueryEvaluationException> head
+                    = new CloseableIteratorIteration<>(buffer.iterator());
+            if (buffer.size() > queryCache.getMaxResultSize()) {
+                List<CloseableIteration<BindingSet, QueryEvaluationException>> parts = new LinkedList<>();
+                parts.add(head);
+                parts.add(results);
+                // the remaining results are closed by the caller
+                streaming = true;
+                return new CompoundCloseableIteration<>(parts);
+            }
+        } finally {
+            if (!streaming) {
+                results.close();
+            }
+        }
+
+        queryCache.put(key, buffer, epoch);
+        return new CloseableIteratorIteration<>(buffer.iterator());
+    }
+
+    private CloseableIteration<BindingSet, QueryEvaluationException> evaluateUncached(
+            final TupleExpr tupleExpr,
+            final Dataset dataSet,
+            final BindingSet bindingSet,
+            final boolean includeInferred) throws SailException {
         try {
             TripleSource tripleSource = new SailConnectionTripleSource(this, valueFactory, includeInferred);
             EvaluationStrategy strategy = new SimpleEvaluationStrategy(tripleSource, dataSet, null);
@@ -129,18 +211,81 @@ public class CachingSailConnection extends AbstractSailConnection {
         uncommittedChanges = true;
     }*/
 
+    // Metadata is neither cached nor served from the cache while this connection has uncommitted changes to it.
     protected CloseableIteration<? extends Resource, SailException> getContextIDsInternal()
             throws SailException {
-        return baseSailConnection.getContextIDs();
+        if (null == metadataCache || !pendingChanges.isEmpty()) {
+            return baseSailConnection.getContextIDs();
+        }
+
+        List<Resource> cached = metadataCache.getContextIDs();
+        if (null != cached) {
+            return new CloseableIteratorIteration<>(cached.iterator());
+        }
+
+        long epoch = metadataCache.getStatementEpoch();
+        return this.<Resource>readThrough(baseSailConnection.getContextIDs(),
+                contextIDs -> metadataCache.putContextIDs(contextIDs, epoch));
     }
 
     protected String getNamespaceInternal(final String prefix) throws SailException {
-        return baseSailConnection.getNamespace(prefix);
+        List<Namespace> cached = null == metadataCache || namespacesChanged ? null : metadataCache.getNamespaces();
+        if (null == cached) {
+            return baseSailConnection.getNamespace(prefix);
+        }
+
+        for (Namespace ns : cached) {
+            if (ns.getPrefix().equals(prefix)) {
+                return ns.getName();
+            }
+        }
+        return null;
     }
 
     protected CloseableIteration<? extends Namespace, SailException> getNamespacesInternal()
             throws SailException {
-        return baseSailConnection.getNamespaces();
+        if (null == metadataCache || namespacesChanged) {
+            return baseSailConnection.getNamespaces();
+        }
+
+        List<Namespace> cached = metadataCache.getNamespaces();
+        if (null != cached) {
+            return new CloseableIteratorIteration<>(cached.iterator());
+        }
+
+        long epoch = metadataCache.getNamespaceEpoch();
+        return this.<Namespace>readThrough(baseSailConnection.getNamespaces(),
+                namespaces -> metadataCache.putNamespaces(namespaces, epoch));
+    }
+
+    // Reads an iteration into a list which is passed to the given consumer,
+    // unless it has more items than are cached, in which case the remaining items are streamed.
+    @SuppressWarnings("unchecked")
+    private <T> CloseableIteration<? extends T, SailException> readThrough(
+            final CloseableIteration<? extends T, SailException> iter,
+            final Consumer<List<T>> consumer) throws SailException {
+        List<T> buffer = new ArrayList<>();
+        try {
+            while (buffer.size() <= MetadataCache.MAX_ITEMS && iter.hasNext()) {
+                buffer.add(iter.next());
+            }
+        } catch (RuntimeException e) {
+            iter.close();
+            throw e;
+        }
+
+        List<T> items = Collections.unmodifiableList(buffer);
+        CloseableIteration<T, SailException> head = new CloseableIteratorIteration<>(items.iterator());
+        if (buffer.size() > MetadataCache.MAX_ITEMS) {
+            List<CloseableIteration<T, SailException>> parts = new LinkedList<>();
+            parts.add(head);
+            parts.add((CloseableIteration<T, SailException>) iter);
+            return new CompoundCloseableIteration<>(parts);
+        }
+
+        iter.close();
+        consumer.accept(items);
+        return head;
     }
 
     @Override
@@ -151,81 +296,98 @@ public class CachingSailConnection extends AbstractSailConnection {
             final boolean includeInferred,
             final Resource... context) throws SailException {
 
-        if (null != subj && cacheSubject) {
-            if (!cachedSubjects.contains(subj)) {
-                cacheStatements(subj, null, null);
-                cachedSubjects.add(subj);
-            }
+        CacheKey requested;
+        CacheKey key;
+        if (null != keySelector) {
+            // any bound pattern may be cached, under a key chosen according to the observed workload
+            requested = null != subj || null != pred || null != obj ? new CacheKey(subj, pred, obj) : null;
+            key = null == requested || registry.isCached(requested) ? requested : keySelector.select(requested);
+        } else {
+            // the key is the bound pattern itself, provided that it binds at least one enabled position
+            requested = (null != subj && cacheSubject) || (null != pred && cachePredicate)
+                    || (null != obj && cacheObject) ? new CacheKey(subj, pred, obj) : null;
+            key = requested;
+        }
 
-            return cacheConnection.getStatements(subj, pred, obj, includeInferred, context);
-        } else if (null != obj && cacheObject) {
-            if (!cachedObjects.contains(obj)) {
-                cacheStatements(null, null, obj);
-                cachedObjects.add(obj);
+        // If the statements of the key could not be kept in the cache, they are retrieved from the base Sail,
+        // as are all statements while this connection has uncommitted changes.
+        if (null != key && pendingChanges.isEmpty()) {
+            CachedKeyRegistry.Fill fill = registry.lookup(key);
+            if (null != fill) {
+                // the statements are loaded in all contexts before they are returned
+                return new PatternFilterIteration(fill.load(baseSailConnection.getStatements(
+                        key.getSubject(), key.getPredicate(), key.getObject(), false)),
+                        subj, pred, obj, context);
             }
 
-            return cacheConnection.getStatements(subj, pred, obj, includeInferred, context);
-        } else if (null != pred && cachePredicate) {
-            if (!cachedPredicates.contains(pred)) {
-                cacheStatements(null, pred, null);
-                cachedPredicates.add(pred);
+            registry.readLock().lock();
+            try {
+                if (registry.isKnownEmpty(requested)) {
+                    return new EmptyCloseableIteration<>();
+                }
+
+                List<Statement> pending = registry.getPendingFill(requested);
+                if (null != pending) {
+                    return new PatternFilterIteration(new CloseableIteratorIteration<>(pending.iterator()),
+                            subj, pred, obj, context);
+                }
+
+                if (registry.isCached(requested)) {
+                    return cacheConnection.getStatements(subj, pred, obj, includeInferred, context);
+                }
+            } finally {
+                registry.readLock().unlock();
             }
-
-            return cacheConnection.getStatements(subj, pred, obj, includeInferred, context);
-        } else {
-            return baseSailConnection.getStatements(subj, pred, obj, includeInferred, context);
         }
+
+        return baseSailConnection.getStatements(subj, pred, obj, includeInferred, context);
     }
 
     protected void removeNamespaceInternal(final String prefix) throws SailException {
         baseSailConnection.removeNamespace(prefix);
+        namespacesChanged = true;
     }
 
     // Note: removing statements does not change the configuration of cached
     // values.
     protected void removeStatementsInternal(final Resource subj, final IRI pred, final Value obj,
                                          final Resource... contexts) throws SailException {
-        cacheConnection.removeStatements(subj, pred, obj, contexts);
         baseSailConnection.removeStatements(subj, pred, obj, contexts);
-        uncommittedChanges = true;
+        pendingChanges.remove(subj, pred, obj, contexts);
     }
 
-    // No rollback ability for now.
+    // Changes are not applied to the cache before commit, so there is nothing to undo in the cache.
     protected void rollbackInternal() throws SailException {
-        /*
-          cacheConnection.rollback();
-          baseSailConnection.rollback();
-          uncommittedChanges = false;*/
+        pendingChanges.discard();
+        namespacesChanged = false;
+        baseSailConnection.rollback();
     }
 
     protected void setNamespaceInternal(final String prefix, final String name) throws SailException {
         baseSailConnection.setNamespace(prefix, name);
+        namespacesChanged = true;
     }
 
     protected long sizeInternal(final Resource... contexts) throws SailException {
-        return baseSailConnection.size(contexts);
-    }
-
-    protected void startTransactionInternal() throws SailException {
-        baseSailConnection.begin();
-        cacheConnection.begin();
-    }
-
-    private void cacheStatements(final Resource subj, final IRI pred, final Value obj) throws SailException {
-
-        cacheConnection.begin();
-
-        CloseableIteration<? extends Statement, SailException> iter
-                = baseSailConnection.getStatements(subj, pred, obj, false);
+        if (null == metadataCache || !pendingChanges.isEmpty()) {
+            return baseSailConnection.size(contexts);
+        }
 
-        while (iter.hasNext()) {
-            Statement st = iter.next();
-            cacheConnection.addStatement(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+        Long cached = metadataCache.getSize(contexts);
+        if (null != cached) {
+            return cached;
         }
 
-        iter.close();
+        long epoch = metadataCache.getStatementEpoch();
+        long size = baseSailConnection.size(contexts);
+        metadataCache.putSize(size, epoch, contexts);
+        return size;
+    }
 
-        cacheConnection.commit();
+    protected void startTransactionInternal() throws SailException {
+        pendingChanges.discard();
+        namespacesChanged = false;
+        baseSailConnection.begin();
     }
 
     public SailConnection getBaseConnection() {
@@ -0,0 +1,610 @@
+package net.fortytwo.sesametools.caching;
+
+import org.eclipse.rdf4j.IsolationLevels;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.helpers.AbstractSail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A compact, in-memory <code>Sail</code> for use as the cache of a <code>CachingSail</code>.
+ * Values are interned in a <code>ValueDictionary</code>, and statements are stored as rows of integer ids
+ * in a <code>QuadTable</code>, at a small fraction of the per-statement overhead of a <code>MemoryStore</code>.
+ * <p>
+ * Writes are applied immediately and are visible to all connections; a rollback undoes the writes
+ * of the transaction. The only supported isolation level is therefore <code>NONE</code>.
+ * Matching statements are read from the posting lists one at a time, rather than collected up front.
+ * An iteration which is open while statements are removed continues over a copy of its remaining rows,
+ * so that it neither skips nor repeats statements as rows move within the lists.
+ * An open iteration holds a reference to each id it matches against, so that the ids are not recycled
+ * for other values until the iteration is closed.
+ * Inference is not supported.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class DictionaryStore extends AbstractSail {
+    private final ValueFactory valueFactory = SimpleValueFactory.getInstance();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, String> namespaces = new ConcurrentSkipListMap<>();
+
+    private final ValueDictionary dictionary = new ValueDictionary(valueFactory);
+    private final QuadTable quads = new QuadTable();
+
+    // iterations which read directly from a posting list, and must be detached from it before rows are removed
+    private final Set<MatchIteration> attached = ConcurrentHashMap.newKeySet();
+
+    // incremented whenever the store is cleared, invalidating the ids held by undo logs
+    private long generation = 0;
+
+    public DictionaryStore() {
+        setSupportedIsolationLevels(IsolationLevels.NONE);
+        setDefaultIsolationLevel(IsolationLevels.NONE);
+    }
+
+    @Override
+    protected SailConnection getConnectionInternal() throws SailException {
+        return new DictionaryStoreConnection(this);
+    }
+
+    @Override
+    protected void shutDownInternal() throws SailException {
+        lock.writeLock().lock();
+        try {
+            detachAll();
+            quads.clear();
+            dictionary.clear();
+            generation++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isWritable() throws SailException {
+        return true;
+    }
+
+    @Override
+    public ValueFactory getValueFactory() {
+        return valueFactory;
+    }
+
+    /**
+     * @return the number of distinct values in the store
+     */
+    public int getDictionarySize() {
+        lock.readLock().lock();
+        try {
+            return dictionary.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Map<String, String> getNamespaceMap() {
+        return namespaces;
+    }
+
+    /**
+     * @param undo a log to which the statement is written if it is added, or <code>null</code>
+     * @return whether the statement was added
+     */
+    boolean add(final Resource subj, final IRI pred, final Value obj, final Resource context, final UndoLog undo) {
+        lock.writeLock().lock();
+        try {
+            int s = dictionary.acquire(subj);
+            int p = dictionary.acquire(pred);
+            int o = dictionary.acquire(obj);
+            int c = null == context ? 0 : dictionary.acquire(context);
+
+            if (quads.find(s, p, o, c) >= 0) {
+                release(s, p, o, c);
+                return false;
+            }
+
+            quads.add(s, p, o, c);
+            if (null != undo) {
+                // the log holds its own references, so that the ids remain valid if the row is removed
+                retain(s, p, o, c);
+                undo.append(s, p, o, c, true, generation);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param undo a log to which removed statements are written, or <code>null</code>
+     */
+    void remove(final Resource subj, final IRI pred, final Value obj, final UndoLog undo,
+                final Resource... contexts) {
+        lock.writeLock().lock();
+        try {
+            detachAll();
+            for (int row : matchRows(subj, pred, obj, contexts)) {
+                int s = quads.get(row, QuadTable.SUBJECT);
+                int p = quads.get(row, QuadTable.PREDICATE);
+                int o = quads.get(row, QuadTable.OBJECT);
+                int c = quads.get(row, QuadTable.CONTEXT);
+                quads.remove(row);
+                if (null != undo) {
+                    // the references of the row pass to the log
+                    undo.append(s, p, o, c, false, generation);
+                } else {
+                    release(s, p, o, c);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Makes the changes in a log permanent, releasing the values it refers to
+     */
+    void commit(final UndoLog undo) {
+        if (undo.isEmpty()) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (undo.generation == generation) {
+                for (int i = 0; i < undo.size; i += UndoLog.WIDTH) {
+                    int[] e = undo.entries;
+                    release(e[i], e[i + 1], e[i + 2], e[i + 3]);
+                }
+            }
+            undo.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reverts the changes in a log, most recent first
+     */
+    void rollback(final UndoLog undo) {
+        if (undo.isEmpty()) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (undo.generation == generation) {
+                detachAll();
+                int[] e = undo.entries;
+                for (int i = undo.size - UndoLog.WIDTH; i >= 0; i -= UndoLog.WIDTH) {
+                    int s = e[i], p = e[i + 1], o = e[i + 2], c = e[i + 3];
+                    int row = quads.find(s, p, o, c);
+                    if (0 != e[i + 4]) {
+                        if (row >= 0) {
+                            quads.remove(row);
+                            release(s, p, o, c);
+                        }
+                        release(s, p, o, c);
+                    } else if (row < 0) {
+                        // the references of the log pass to the restored row
+                        quads.add(s, p, o, c);
+                    } else {
+                        release(s, p, o, c);
+                    }
+                }
+            }
+            undo.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    CloseableIteration<Statement, SailException> match(final Resource subj,
+                                                       final IRI pred,
+                                                       final Value obj,
+                                                       final Resource... contexts) {
+        // the write lock is needed to pin the ids of the iteration
+        lock.writeLock().lock();
+        try {
+            return new MatchIteration(subj, pred, obj, contexts);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    long size(final Resource... contexts) {
+        lock.readLock().lock();
+        try {
+            if (0 == contexts.length) {
+                return quads.size();
+            }
+
+            long size = 0;
+            for (int c : contextIds(contexts)) {
+                size += quads.count(QuadTable.CONTEXT, c);
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<Resource> contextIDs() {
+        lock.readLock().lock();
+        try {
+            List<Resource> results = new ArrayList<>();
+            for (int id = 1; id < dictionary.maxId(); id++) {
+                if (quads.count(QuadTable.CONTEXT, id) > 0) {
+                    results.add((Resource) dictionary.get(id));
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void retain(final int s, final int p, final int o, final int c) {
+        dictionary.retain(s);
+        dictionary.retain(p);
+        dictionary.retain(o);
+        if (0 != c) {
+            dictionary.retain(c);
+        }
+    }
+
+    private void release(final int s, final int p, final int o, final int c) {
+        dictionary.release(s);
+        dictionary.release(p);
+        dictionary.release(o);
+        if (0 != c) {
+            dictionary.release(c);
+        }
+    }
+
+    private Statement toStatement(final int row) {
+        Resource subj = (Resource) dictionary.get(quads.get(row, QuadTable.SUBJECT));
+        IRI pred = (IRI) dictionary.get(quads.get(row, QuadTable.PREDICATE));
+        Value obj = dictionary.get(quads.get(row, QuadTable.OBJECT));
+        int c = quads.get(row, QuadTable.CONTEXT);
+
+        return 0 == c
+                ? valueFactory.createStatement(subj, pred, obj)
+                : valueFactory.createStatement(subj, pred, obj, (Resource) dictionary.get(c));
+    }
+
+    private int[] contextIds(final Resource... contexts) {
+        int[] ids = new int[contexts.length];
+        int n = 0;
+        for (Resource context : contexts) {
+            int id = null == context ? 0 : dictionary.lookup(context);
+            // a context which is not in the dictionary matches nothing
+            if (null == context || 0 != id) {
+                ids[n++] = id;
+            }
+        }
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * @return the ids of the bound subject, predicate and object, 0 where unbound,
+     * or <code>null</code> if a bound value is not in the dictionary and nothing can match
+     */
+    private int[] idsOf(final Resource subj, final IRI pred, final Value obj) {
+        int[] ids = new int[3];
+        Value[] values = {subj, pred, obj};
+        for (int i = 0; i < 3; i++) {
+            if (null != values[i]) {
+                ids[i] = dictionary.lookup(values[i]);
+                if (0 == ids[i]) {
+                    return null;
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the position of the shortest posting list of any bound position, from which to drive a scan,
+     * or -1 if no position is bound
+     */
+    private int drivingPosition(final int[] ids, final int[] cids) {
+        int position = -1;
+        int shortest = Integer.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            if (0 != ids[i] && quads.count(i, ids[i]) < shortest) {
+                position = i;
+                shortest = quads.count(i, ids[i]);
+            }
+        }
+        if (null != cids && 1 == cids.length && quads.count(QuadTable.CONTEXT, cids[0]) < shortest) {
+            position = QuadTable.CONTEXT;
+        }
+        return position;
+    }
+
+    private int[] matchRows(final Resource subj, final IRI pred, final Value obj, final Resource... contexts) {
+        int[] ids = idsOf(subj, pred, obj);
+        if (null == ids) {
+            return new int[0];
+        }
+
+        int[] cids = null;
+        if (contexts.length > 0) {
+            cids = contextIds(contexts);
+            if (0 == cids.length) {
+                return new int[0];
+            }
+        }
+
+        int position = drivingPosition(ids, cids);
+        int[] rows = new int[16];
+        int n = 0;
+        if (position >= 0) {
+            int id = QuadTable.CONTEXT == position ? cids[0] : ids[position];
+            int[] list = quads.postings(position, id);
+            int length = quads.count(position, id);
+            for (int i = 1; i <= length; i++) {
+                if (matches(list[i], ids, cids)) {
+                    if (n == rows.length) {
+                        rows = Arrays.copyOf(rows, 2 * n);
+                    }
+                    rows[n++] = list[i];
+                }
+            }
+        } else {
+            for (int row = 0; row < quads.rowCount(); row++) {
+                if (quads.isLive(row) && matches(row, ids, cids)) {
+                    if (n == rows.length) {
+                        rows = Arrays.copyOf(rows, 2 * n);
+                    }
+                    rows[n++] = row;
+                }
+            }
+        }
+
+        return Arrays.copyOf(rows, n);
+    }
+
+    private void detachAll() {
+        for (MatchIteration iter : attached) {
+            iter.detach();
+        }
+        attached.clear();
+    }
+
+    private boolean matches(final int row, final int[] ids, final int[] cids) {
+        for (int i = 0; i < 3; i++) {
+            if (0 != ids[i] && quads.get(row, i) != ids[i]) {
+                return false;
+            }
+        }
+
+        if (null != cids) {
+            int c = quads.get(row, QuadTable.CONTEXT);
+            for (int cid : cids) {
+                if (cid == c) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * A log of the statements added and removed in a transaction, as tuples of ids.
+     * The log holds a reference to each id, so that a statement can be restored after its values
+     * have otherwise been released.
+     * This class is not thread-safe.
+     */
+    static class UndoLog {
+        private static final int WIDTH = 5;
+
+        private int[] entries = new int[WIDTH * 16];
+        private int size = 0;
+        private long generation;
+
+        boolean isEmpty() {
+            return 0 == size;
+        }
+
+        private void append(final int s, final int p, final int o, final int c, final boolean added,
+                            final long generation) {
+            if (0 == size) {
+                this.generation = generation;
+            }
+            if (size + WIDTH > entries.length) {
+                entries = Arrays.copyOf(entries, 2 * entries.length);
+            }
+
+            entries[size++] = s;
+            entries[size++] = p;
+            entries[size++] = o;
+            entries[size++] = c;
+            entries[size++] = added ? 1 : 0;
+        }
+
+        private void clear() {
+            size = 0;
+            if (entries.length > WIDTH * 1024) {
+                entries = new int[WIDTH * 16];
+            }
+        }
+    }
+
+    /**
+     * An iteration which reads matching rows lazily, either from a posting list or, if no position is bound,
+     * from the table as a whole. Each step takes the read lock.
+     * The ids of the bound values are pinned from the time the iteration is opened until it is closed,
+     * so that rows are never matched against ids which have been recycled for other values.
+     */
+    private class MatchIteration implements CloseableIteration<Statement, SailException> {
+        private final int[] ids;
+        private final int[] cids;
+        private final int position;
+        private final int id;
+        private final long pinnedGeneration = generation;
+
+        // the number of entries of the posting list, of the detached rows, or of the table, which have been read
+        private int cursor = 0;
+        // the rows which remained to be read when the iteration was detached from its posting list
+        private int[] detached;
+        private Statement next;
+        private boolean done;
+        private boolean pinned;
+
+        private MatchIteration(final Resource subj, final IRI pred, final Value obj, final Resource... contexts) {
+            ids = idsOf(subj, pred, obj);
+            cids = null != ids && contexts.length > 0 ? contextIds(contexts) : null;
+
+            if (null == ids || (null != cids && 0 == cids.length)) {
+                position = -1;
+                id = 0;
+                done = true;
+                return;
+            }
+
+            position = drivingPosition(ids, cids);
+            id = position < 0 ? 0 : QuadTable.CONTEXT == position ? cids[0] : ids[position];
+            pin(true);
+            if (position >= 0) {
+                attached.add(this);
+            }
+        }
+
+        @Override
+        public boolean hasNext() throws SailException {
+            if (null == next && !done) {
+                lock.readLock().lock();
+                try {
+                    next = advance();
+                } finally {
+                    lock.readLock().unlock();
+                }
+
+                if (null == next) {
+                    close();
+                }
+            }
+
+            return null != next;
+        }
+
+        @Override
+        public Statement next() throws SailException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Statement st = next;
+            next = null;
+            return st;
+        }
+
+        @Override
+        public void remove() throws SailException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws SailException {
+            done = true;
+            attached.remove(this);
+
+            if (pinned) {
+                lock.writeLock().lock();
+                try {
+                    pin(false);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+
+        // called with the write lock held
+        private void pin(final boolean retain) {
+            pinned = retain;
+            // ids of an earlier generation were released when the store was cleared
+            if (pinnedGeneration != generation) {
+                return;
+            }
+
+            for (int i : ids) {
+                pinId(i, retain);
+            }
+            if (null != cids) {
+                for (int i : cids) {
+                    pinId(i, retain);
+                }
+            }
+        }
+
+        private void pinId(final int i, final boolean retain) {
+            if (0 != i) {
+                if (retain) {
+                    dictionary.retain(i);
+                } else {
+                    dictionary.release(i);
+                }
+            }
+        }
+
+        // called with the write lock held
+        private void detach() {
+            if (null == detached && !done) {
+                int[] list = quads.postings(position, id);
+                int length = quads.count(position, id);
+                detached = cursor < length ? Arrays.copyOfRange(list, cursor + 1, length + 1) : new int[0];
+                cursor = 0;
+            }
+        }
+
+        private Statement advance() {
+            if (position < 0) {
+                while (cursor < quads.rowCount()) {
+                    int row = cursor++;
+                    if (quads.isLive(row) && matches(row, ids, cids)) {
+                        return toStatement(row);
+                    }
+                }
+            } else if (null == detached) {
+                int[] list = quads.postings(position, id);
+                int length = quads.count(position, id);
+                while (cursor < length) {
+                    int row = list[++cursor];
+                    if (matches(row, ids, cids)) {
+                        return toStatement(row);
+                    }
+                }
+            } else {
+                while (cursor < detached.length) {
+                    // a detached row may since have been removed, or recycled for another statement
+                    int row = detached[cursor++];
+                    if (row < quads.rowCount() && quads.isLive(row) && matches(row, ids, cids)) {
+                        return toStatement(row);
+                    }
+                }
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package net.fortytwo.sesametools.caching;
+
+import net.fortytwo.sesametools.SailConnectionTripleSource;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Namespace;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.SimpleNamespace;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.SimpleEvaluationStrategy;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.helpers.AbstractSailConnection;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class DictionaryStoreConnection extends AbstractSailConnection {
+    private final DictionaryStore store;
+
+    // the statements added and removed in the current transaction
+    private final DictionaryStore.UndoLog undoLog = new DictionaryStore.UndoLog();
+
+    public DictionaryStoreConnection(final DictionaryStore store) {
+        super(store);
+        this.store = store;
+    }
+
+    protected void addStatementInternal(final Resource subj,
+                                        final IRI pred,
+                                        final Value obj,
+                                        final Resource... contexts) throws SailException {
+        if (0 == contexts.length) {
+            add(subj, pred, obj, null);
+        } else {
+            for (Resource context : contexts) {
+                add(subj, pred, obj, context);
+            }
+        }
+    }
+
+    protected void clearInternal(final Resource... contexts) throws SailException {
+        removeStatementsInternal(null, null, null, contexts);
+    }
+
+    protected void clearNamespacesInternal() throws SailException {
+        store.getNamespaceMap().clear();
+    }
+
+    protected void closeInternal() throws SailException {
+        store.commit(undoLog);
+    }
+
+    protected void commitInternal() throws SailException {
+        store.commit(undoLog);
+    }
+
+    protected CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluateInternal(
+            final TupleExpr tupleExpr,
+            final Dataset dataSet,
+            final BindingSet bindingSet,
+            final boolean includeInferred) throws SailException {
+        try {
+            TripleSource tripleSource
+                    = new SailConnectionTripleSource(this, store.getValueFactory(), includeInferred);
+            EvaluationStrategy strategy = new SimpleEvaluationStrategy(tripleSource, dataSet, null);
+
+            return strategy.evaluate(tupleExpr, bindingSet);
+        } catch (QueryEvaluationException e) {
+            throw new SailException(e);
+        }
+    }
+
+    protected CloseableIteration<? extends Resource, SailException> getContextIDsInternal()
+            throws SailException {
+        return new CloseableIteratorIteration<>(store.contextIDs().iterator());
+    }
+
+    protected String getNamespaceInternal(final String prefix) throws SailException {
+        return store.getNamespaceMap().get(prefix);
+    }
+
+    protected CloseableIteration<? extends Namespace, SailException> getNamespacesInternal()
+            throws SailException {
+        List<Namespace> namespaces = new LinkedList<>();
+        for (Map.Entry<String, String> e : store.getNamespaceMap().entrySet()) {
+            namespaces.add(new SimpleNamespace(e.getKey(), e.getValue()));
+        }
+
+        return new CloseableIteratorIteration<>(namespaces.iterator());
+    }
+
+    protected CloseableIteration<? extends Statement, SailException> getStatementsInternal(
+            final Resource subj,
+            final IRI pred,
+            final Value obj,
+            final boolean includeInferred,
+            final Resource... contexts) throws SailException {
+        return store.match(subj, pred, obj, contexts);
+    }
+
+    protected void removeNamespaceInternal(final String prefix) throws SailException {
+        store.getNamespaceMap().remove(prefix);
+    }
+
+    protected void removeStatementsInternal(final Resource subj,
+                                            final IRI pred,
+                                            final Value obj,
+                                            final Resource... contexts) throws SailException {
+        store.remove(subj, pred, obj, undoLog, contexts);
+    }
+
+    protected void rollbackInternal() throws SailException {
+        store.rollback(undoLog);
+    }
+
+    protected void setNamespaceInternal(final String prefix, final String name) throws SailException {
+        store.getNamespaceMap().put(prefix, name);
+    }
+
+    protected long sizeInternal(final Resource... contexts) throws SailException {
+        return store.size(contexts);
+    }
+
+    protected void startTransactionInternal() throws SailException {
+        store.commit(undoLog);
+    }
+
+    private void add(final Resource subj, final IRI pred, final Value obj, final Resource context) {
+        store.add(subj, pred, obj, context, undoLog);
+    }
+}
@@ -0,0 +1,38 @@
+package net.fortytwo.sesametools.caching;
+
+/**
+ * A strategy for choosing which cached keys to discard when a <code>CachingSail</code> exceeds its capacity.
+ * Keys are weighted by the number of statements they hold in the cache.
+ * Implementations need not be thread-safe; callers are expected to synchronize access.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Records a newly cached key
+     *
+     * @param key    the key which has been cached
+     * @param weight the number of statements cached under the key
+     */
+    void recordAdmission(CacheKey key, long weight);
+
+    /**
+     * Records a lookup of a key, whether or not the key is resident
+     *
+     * @param key the key which has been accessed
+     */
+    void recordAccess(CacheKey key);
+
+    /**
+     * Records that a key is no longer resident, whether through eviction or invalidation
+     *
+     * @param key the key which has been removed
+     */
+    void recordRemoval(CacheKey key);
+
+    /**
+     * @return the resident key which should be evicted next, or <code>null</code> if there are no resident keys
+     */
+    CacheKey selectVictim();
+}
@@ -0,0 +1,86 @@
+package net.fortytwo.sesametools.caching;
+
+/**
+ * A count-min sketch of 4-bit counters, used to estimate how often a key has been accessed
+ * within a recent window of activity.
+ * Counters are periodically halved, so that the estimates favor recent accesses.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_WIDTH = 1 << 24;
+    private static final int COUNTERS_PER_LONG = 16;
+    private static final int MAX_COUNT = 15;
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private final long[] table;
+    private final int widthMask;
+    private final int longsPerRow;
+    private final long sampleSize;
+
+    private long additions = 0;
+
+    /**
+     * @param expectedKeys the approximate number of distinct keys to be tracked
+     */
+    FrequencySketch(final long expectedKeys) {
+        int width = COUNTERS_PER_LONG;
+        while (width < expectedKeys && width < MAX_WIDTH) {
+            width <<= 1;
+        }
+
+        widthMask = width - 1;
+        longsPerRow = width / COUNTERS_PER_LONG;
+        table = new long[DEPTH * longsPerRow];
+        sampleSize = 10L * width;
+    }
+
+    int frequency(final Object key) {
+        int hash = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            int count = (int) ((table[row * longsPerRow + (index >>> 4)] >>> ((index & 15) << 2)) & 0xfL);
+            min = Math.min(min, count);
+        }
+        return min;
+    }
+
+    void increment(final Object key) {
+        int hash = spread(key.hashCode());
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            int i = row * longsPerRow + (index >>> 4);
+            int shift = (index & 15) << 2;
+            if (((table[i] >>> shift) & 0xfL) < MAX_COUNT) {
+                table[i] += 1L << shift;
+            }
+        }
+
+        if (++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(final int hash, final int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return ((int) h) & widthMask;
+    }
+
+    private static int spread(final int hash) {
+        int h = hash * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,136 @@
+package net.fortytwo.sesametools.caching;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.sail.Sail;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A background task which keeps the keys of a <code>CachedKeyRegistry</code> within their time to live.
+ * Keys which have been read since they were loaded are reloaded from the base Sail shortly before they expire,
+ * so that readers of frequently used keys do not wait for the base Sail;
+ * other keys are simply removed from the cache once they expire.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class KeyRefresher {
+    private static final Logger LOG = LoggerFactory.getLogger(KeyRefresher.class);
+
+    // the fraction of the time to live after which a key which has been read is reloaded
+    private static final double REFRESH_AHEAD_FRACTION = 0.75;
+
+    // the number of times per time to live at which keys are checked
+    private static final int CHECKS_PER_TIME_TO_LIVE = 4;
+
+    // the time for which to wait for a check in progress to finish, when stopping
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+    private final CachedKeyRegistry registry;
+    private final Sail baseSail;
+    private final long timeToLiveMillis;
+    private final long maxPatternCardinality;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param registry              the registry whose keys are to be refreshed
+     * @param baseSail              the Sail from which to reload keys
+     * @param timeToLiveMillis      the time to live of a key, in milliseconds
+     * @param maxPatternCardinality the maximum number of statements of a cached key
+     */
+    KeyRefresher(final CachedKeyRegistry registry,
+                 final Sail baseSail,
+                 final long timeToLiveMillis,
+                 final long maxPatternCardinality) {
+        this.registry = registry;
+        this.baseSail = baseSail;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.maxPatternCardinality = maxPatternCardinality;
+    }
+
+    void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "CachingSail key refresher");
+            t.setDaemon(true);
+            return t;
+        });
+
+        long period = Math.max(1, timeToLiveMillis / CHECKS_PER_TIME_TO_LIVE);
+        executor.scheduleWithFixedDelay(this::check, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Interrupts any check in progress, and waits briefly for it to finish.
+     * A check which is still reading from the base Sail after that time is abandoned.
+     */
+    void stop() throws SailException {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.warn("key refresher did not stop within " + STOP_TIMEOUT_MILLIS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SailException(e);
+        }
+    }
+
+    private void check() {
+        // a scheduled task which throws an exception is never run again, so all failures are caught here
+        try {
+            refreshAccessedKeys();
+            registry.expire();
+        } catch (RuntimeException e) {
+            LOG.warn("failed to refresh cached keys", e);
+        }
+    }
+
+    private void refreshAccessedKeys() throws SailException {
+        List<CacheKey> keys = new ArrayList<>();
+        for (CacheKey key : registry.getKeysOlderThan(
+                (long) (TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis) * REFRESH_AHEAD_FRACTION))) {
+            if (registry.wasAccessed(key)) {
+                keys.add(key);
+            }
+        }
+
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        SailConnection sc = baseSail.getConnection();
+        try {
+            for (CacheKey key : keys) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+
+                long epoch = registry.getWriteEpoch();
+                long loadTime = System.nanoTime();
+                List<Statement> statements = new ArrayList<>();
+                try (CloseableIteration<? extends Statement, SailException> iter = sc.getStatements(
+                        key.getSubject(), key.getPredicate(), key.getObject(), false)) {
+                    while (iter.hasNext() && statements.size() <= maxPatternCardinality) {
+                        statements.add(iter.next());
+                    }
+                }
+
+                // a key which has outgrown the cache is left to expire
+                if (statements.size() <= maxPatternCardinality) {
+                    registry.refresh(key, statements, loadTime, epoch);
+                }
+            }
+        } finally {
+            sc.close();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package net.fortytwo.sesametools.caching;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * An <code>EvictionPolicy</code> which evicts the least recently used key
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+    // access-ordered, so that iteration begins with the least recently used key
+    private final LinkedHashMap<CacheKey, Long> keys = new LinkedHashMap<>(16, 0.75f, true);
+
+    public void recordAdmission(final CacheKey key, final long weight) {
+        keys.put(key, weight);
+    }
+
+    public void recordAccess(final CacheKey key) {
+        keys.get(key);
+    }
+
+    public void recordRemoval(final CacheKey key) {
+        keys.remove(key);
+    }
+
+    public CacheKey selectVictim() {
+        Iterator<CacheKey> iter = keys.keySet().iterator();
+        return iter.hasNext() ? iter.next() : null;
+    }
+}
@@ -0,0 +1,137 @@
+package net.fortytwo.sesametools.caching;
+
+import org.eclipse.rdf4j.model.Namespace;
+import org.eclipse.rdf4j.model.Resource;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of the namespaces, context IDs and sizes of the base Sail of a <code>CachingSail</code>,
+ * which are requested far more often than they change.
+ * Namespaces are invalidated when namespace changes are committed, and context IDs and sizes
+ * when statement changes are committed.
+ * As in <code>QueryResultCache</code>, values read concurrently with an invalidation are not admitted.
+ * If a time to live is set, values are discarded once that time has elapsed since they were cached.
+ * All methods are synchronized.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class MetadataCache {
+    // the maximum number of namespaces or context IDs which are cached, and of sizes of distinct sets of contexts
+    static final int MAX_ITEMS = 10000;
+
+    private static class Entry<T> {
+        private final T value;
+        private final long createTime = System.nanoTime();
+
+        private Entry(final T value) {
+            this.value = value;
+        }
+    }
+
+    private final long timeToLiveNanos;
+
+    private Entry<List<Namespace>> namespaces;
+    private Entry<List<Resource>> contextIDs;
+    private final Map<List<Resource>, Entry<Long>> sizes
+            = new LinkedHashMap<List<Resource>, Entry<Long>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<List<Resource>, Entry<Long>> eldest) {
+            return size() > MAX_ITEMS;
+        }
+    };
+
+    // incremented by every invalidation of namespaces, and of context IDs and sizes, respectively
+    private long namespaceEpoch = 0;
+    private long statementEpoch = 0;
+
+    /**
+     * @param timeToLiveMillis the time for which values are kept, or 0 to keep them until they are invalidated
+     */
+    MetadataCache(final long timeToLiveMillis) {
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+    }
+
+    /**
+     * @return the cached namespaces, or <code>null</code> if they are not cached
+     */
+    synchronized List<Namespace> getNamespaces() {
+        namespaces = fresh(namespaces);
+        return null == namespaces ? null : namespaces.value;
+    }
+
+    /**
+     * @return a token to be passed to <code>putNamespaces</code> along with namespaces read after this call
+     */
+    synchronized long getNamespaceEpoch() {
+        return namespaceEpoch;
+    }
+
+    synchronized void putNamespaces(final List<Namespace> namespaces, final long epoch) {
+        if (epoch == namespaceEpoch) {
+            this.namespaces = new Entry<>(namespaces);
+        }
+    }
+
+    synchronized void invalidateNamespaces() {
+        namespaceEpoch++;
+        namespaces = null;
+    }
+
+    /**
+     * @return the cached context IDs, or <code>null</code> if they are not cached
+     */
+    synchronized List<Resource> getContextIDs() {
+        contextIDs = fresh(contextIDs);
+        return null == contextIDs ? null : contextIDs.value;
+    }
+
+    /**
+     * @return the cached size of the given contexts, or <code>null</code> if it is not cached
+     */
+    synchronized Long getSize(final Resource... contexts) {
+        List<Resource> key = Arrays.asList(contexts);
+        Entry<Long> entry = fresh(sizes.get(key));
+        if (null == entry) {
+            sizes.remove(key);
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    /**
+     * @return a token to be passed to <code>putContextIDs</code> or <code>putSize</code>
+     * along with values read after this call
+     */
+    synchronized long getStatementEpoch() {
+        return statementEpoch;
+    }
+
+    synchronized void putContextIDs(final List<Resource> contextIDs, final long epoch) {
+        if (epoch == statementEpoch) {
+            this.contextIDs = new Entry<>(contextIDs);
+        }
+    }
+
+    synchronized void putSize(final long size, final long epoch, final Resource... contexts) {
+        if (epoch == statementEpoch) {
+            sizes.put(Arrays.asList(contexts.clone()), new Entry<>(size));
+        }
+    }
+
+    synchronized void invalidateStatements() {
+        statementEpoch++;
+        contextIDs = null;
+        sizes.clear();
+    }
+
+    private <T> Entry<T> fresh(final Entry<T> entry) {
+        return null == entry || (timeToLiveNanos > 0 && System.nanoTime() - entry.createTime >= timeToLiveNanos)
+                ? null : entry;
+    }
+}
@@ -0,0 +1,116 @@
+package net.fortytwo.sesametools.caching;
+
+import net.fortytwo.sesametools.Hashing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded set of keys which are known to have no statements in the base Sail.
+ * Keys are held as 64-bit fingerprints in a fixed table of buckets of four slots each;
+ * when a bucket is full, one of its fingerprints is replaced, so the table never grows.
+ * <p>
+ * Unlike a Bloom filter, the set supports removal, and it has no false positives other than
+ * collisions of 64-bit fingerprints, which are vanishingly rare.
+ * A false positive would cause a query to wrongly return no results, so fingerprints are not truncated.
+ * <p>
+ * Lookups may be made concurrently with each other, but modifications must be made under an external lock.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class NegativeCache {
+    private static final int BUCKET_SIZE = 4;
+
+    // a fingerprint of 0 marks an empty slot
+    private static final long EMPTY = 0;
+
+    private final AtomicLongArray slots;
+    private final int bucketMask;
+
+    private int replacements = 0;
+
+    /**
+     * @param capacity the approximate maximum number of keys. If it is not positive, no keys are held.
+     */
+    NegativeCache(final int capacity) {
+        int buckets = 1;
+        while (buckets * BUCKET_SIZE < capacity) {
+            buckets <<= 1;
+        }
+
+        slots = new AtomicLongArray(capacity > 0 ? buckets * BUCKET_SIZE : 0);
+        bucketMask = buckets - 1;
+    }
+
+    boolean contains(final CacheKey key) {
+        if (0 == slots.length()) {
+            return false;
+        }
+
+        long f = fingerprint(key);
+        int base = bucket(f);
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            if (slots.get(base + i) == f) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param key a key which is known to have no statements
+     */
+    void add(final CacheKey key) {
+        if (0 == slots.length()) {
+            return;
+        }
+
+        long f = fingerprint(key);
+        int base = bucket(f);
+        int free = -1;
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            long g = slots.get(base + i);
+            if (g == f) {
+                return;
+            } else if (EMPTY == g && free < 0) {
+                free = i;
+            }
+        }
+
+        // if the bucket is full, its slots are replaced in turn
+        slots.set(base + (free >= 0 ? free : replacements++ & (BUCKET_SIZE - 1)), f);
+    }
+
+    /**
+     * @param key a key which may now have statements
+     */
+    void remove(final CacheKey key) {
+        if (0 == slots.length()) {
+            return;
+        }
+
+        long f = fingerprint(key);
+        int base = bucket(f);
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            slots.compareAndSet(base + i, f, EMPTY);
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, EMPTY);
+        }
+    }
+
+    private int bucket(final long fingerprint) {
+        return BUCKET_SIZE * ((int) (fingerprint >>> 32) & bucketMask);
+    }
+
+    private static long fingerprint(final CacheKey key) {
+        long f = Hashing.combine(Hashing.combine(
+                Hashing.hash(key.getSubject(), 0),
+                Hashing.hash(key.getPredicate(), 0)),
+                Hashing.hash(key.getObject(), 0));
+        return EMPTY == f ? 1 : f;
+    }
+}
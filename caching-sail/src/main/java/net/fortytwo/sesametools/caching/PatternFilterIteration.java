@@ -0,0 +1,92 @@
+package net.fortytwo.sesametools.caching;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.sail.SailException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * An iteration over those statements of a source which match a pattern,
+ * so that a reader can be answered from the statements of a more general key.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class PatternFilterIteration implements CloseableIteration<Statement, SailException> {
+    private final CloseableIteration<? extends Statement, SailException> source;
+    private final Resource subject;
+    private final IRI predicate;
+    private final Value object;
+    private final Resource[] contexts;
+
+    private Statement next;
+
+    PatternFilterIteration(final CloseableIteration<? extends Statement, SailException> source,
+                           final Resource subject,
+                           final IRI predicate,
+                           final Value object,
+                           final Resource... contexts) {
+        this.source = source;
+        this.subject = subject;
+        this.predicate = predicate;
+        this.object = object;
+        this.contexts = contexts;
+    }
+
+    public boolean hasNext() throws SailException {
+        if (null != next) {
+            return true;
+        }
+
+        while (source.hasNext()) {
+            Statement st = source.next();
+            if (matches(st)) {
+                next = st;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public Statement next() throws SailException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Statement st = next;
+        next = null;
+        return st;
+    }
+
+    public void remove() throws SailException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() throws SailException {
+        source.close();
+    }
+
+    private boolean matches(final Statement st) {
+        if ((null != subject && !subject.equals(st.getSubject()))
+                || (null != predicate && !predicate.equals(st.getPredicate()))
+                || (null != object && !object.equals(st.getObject()))) {
+            return false;
+        }
+
+        if (0 == contexts.length) {
+            return true;
+        }
+
+        for (Resource context : contexts) {
+            if (null == context ? null == st.getContext() : context.equals(st.getContext())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
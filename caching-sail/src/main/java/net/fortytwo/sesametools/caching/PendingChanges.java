@@ -0,0 +1,86 @@
+package net.fortytwo.sesametools.caching;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The changes made through a <code>CachingSailConnection</code> in the current transaction,
+ * in the order in which they were made.
+ * They are applied to the cache only once the base Sail has committed them, and are discarded on rollback.
+ * This class is not thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class PendingChanges implements Iterable<PendingChanges.Change> {
+
+    /**
+     * An added statement, or a pattern of removed statements
+     */
+    static class Change {
+        private final boolean addition;
+        private final Resource subject;
+        private final IRI predicate;
+        private final Value object;
+        private final Resource[] contexts;
+
+        private Change(final boolean addition,
+                       final Resource subject,
+                       final IRI predicate,
+                       final Value object,
+                       final Resource[] contexts) {
+            this.addition = addition;
+            this.subject = subject;
+            this.predicate = predicate;
+            this.object = object;
+            this.contexts = contexts;
+        }
+
+        boolean isAddition() {
+            return addition;
+        }
+
+        Resource getSubject() {
+            return subject;
+        }
+
+        IRI getPredicate() {
+            return predicate;
+        }
+
+        Value getObject() {
+            return object;
+        }
+
+        Resource[] getContexts() {
+            return contexts;
+        }
+    }
+
+    private final List<Change> changes = new ArrayList<>();
+
+    void add(final Resource subj, final IRI pred, final Value obj, final Resource... contexts) {
+        changes.add(new Change(true, subj, pred, obj, contexts.clone()));
+    }
+
+    void remove(final Resource subj, final IRI pred, final Value obj, final Resource... contexts) {
+        changes.add(new Change(false, subj, pred, obj, contexts.clone()));
+    }
+
+    boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    void discard() {
+        changes.clear();
+    }
+
+    @Override
+    public Iterator<Change> iterator() {
+        return changes.iterator();
+    }
+}
@@ -0,0 +1,204 @@
+package net.fortytwo.sesametools.caching;
+
+import java.util.Arrays;
+
+/**
+ * A table of dictionary-encoded statements, stored as rows of four ints (subject, predicate, object, context)
+ * in a single primitive array, with a posting list of rows for each subject, predicate, object and context id.
+ * The context id 0 stands for the default graph.
+ * Each row also records its slot in each of its four posting lists, so that a row is removed in constant time,
+ * however long its lists are.
+ * Rows of removed statements are recycled.
+ * This class is not thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class QuadTable {
+    static final int SUBJECT = 0, PREDICATE = 1, OBJECT = 2, CONTEXT = 3;
+
+    private static final int WIDTH = 4;
+    private static final int INITIAL_ROWS = 1024;
+
+    private int[] rows = new int[WIDTH * INITIAL_ROWS];
+    // the slot of each row in the posting list of each of its positions, parallel to rows
+    private int[] slots = new int[WIDTH * INITIAL_ROWS];
+    private int rowCount = 0;
+    private int size = 0;
+
+    private int[] freeRows = new int[16];
+    private int freeCount = 0;
+
+    private final PostingIndex[] indexes = {
+            new PostingIndex(SUBJECT), new PostingIndex(PREDICATE), new PostingIndex(OBJECT), new PostingIndex(CONTEXT)};
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return an upper bound on the row numbers in use. Rows below this bound may be free.
+     */
+    int rowCount() {
+        return rowCount;
+    }
+
+    boolean isLive(final int row) {
+        // subject ids are never 0
+        return 0 != rows[WIDTH * row];
+    }
+
+    int get(final int row, final int position) {
+        return rows[WIDTH * row + position];
+    }
+
+    /**
+     * @return the row of the given statement, or -1 if it is not in the table
+     */
+    int find(final int s, final int p, final int o, final int c) {
+        int position = SUBJECT;
+        int id = s;
+        if (indexes[OBJECT].length(o) < indexes[position].length(id)) {
+            position = OBJECT;
+            id = o;
+        }
+
+        int[] list = indexes[position].list(id);
+        int length = indexes[position].length(id);
+        for (int i = 0; i < length; i++) {
+            int row = list[i + 1];
+            int base = WIDTH * row;
+            if (rows[base] == s && rows[base + 1] == p && rows[base + 2] == o && rows[base + 3] == c) {
+                return row;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Adds a statement which is not already in the table
+     *
+     * @return the row of the new statement
+     */
+    int add(final int s, final int p, final int o, final int c) {
+        int row;
+        if (freeCount > 0) {
+            row = freeRows[--freeCount];
+        } else {
+            row = rowCount++;
+            if (WIDTH * rowCount > rows.length) {
+                rows = Arrays.copyOf(rows, 2 * rows.length);
+                slots = Arrays.copyOf(slots, rows.length);
+            }
+        }
+
+        int base = WIDTH * row;
+        rows[base] = s;
+        rows[base + 1] = p;
+        rows[base + 2] = o;
+        rows[base + 3] = c;
+
+        indexes[SUBJECT].add(s, row);
+        indexes[PREDICATE].add(p, row);
+        indexes[OBJECT].add(o, row);
+        indexes[CONTEXT].add(c, row);
+
+        size++;
+        return row;
+    }
+
+    void remove(final int row) {
+        int base = WIDTH * row;
+        for (int position = 0; position < WIDTH; position++) {
+            indexes[position].remove(rows[base + position], slots[base + position]);
+        }
+
+        Arrays.fill(rows, base, base + WIDTH, 0);
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, 2 * freeRows.length);
+        }
+        freeRows[freeCount++] = row;
+        size--;
+    }
+
+    /**
+     * @return the posting list of rows for the given id in the given position, in which the rows begin at index 1.
+     * The list may be null if there are no rows.
+     */
+    int[] postings(final int position, final int id) {
+        return indexes[position].list(id);
+    }
+
+    int count(final int position, final int id) {
+        return indexes[position].length(id);
+    }
+
+    void clear() {
+        Arrays.fill(rows, 0);
+        rowCount = 0;
+        size = 0;
+        freeCount = 0;
+        for (PostingIndex index : indexes) {
+            index.clear();
+        }
+    }
+
+    /**
+     * A growable int array of rows for each id. Element 0 of each array holds the number of rows.
+     */
+    private class PostingIndex {
+        private final int position;
+        private int[][] lists = new int[1024][];
+
+        PostingIndex(final int position) {
+            this.position = position;
+        }
+
+        int length(final int id) {
+            return id < lists.length && null != lists[id] ? lists[id][0] : 0;
+        }
+
+        int[] list(final int id) {
+            return id < lists.length ? lists[id] : null;
+        }
+
+        void add(final int id, final int row) {
+            if (id >= lists.length) {
+                lists = Arrays.copyOf(lists, Math.max(2 * lists.length, id + 1));
+            }
+
+            int[] list = lists[id];
+            if (null == list) {
+                list = new int[4];
+                lists[id] = list;
+            } else if (list[0] + 1 == list.length) {
+                list = Arrays.copyOf(list, 2 * list.length);
+                lists[id] = list;
+            }
+
+            list[++list[0]] = row;
+            slots[WIDTH * row + position] = list[0];
+        }
+
+        void remove(final int id, final int slot) {
+            int[] list = lists[id];
+            int length = list[0];
+
+            // order is not significant, so the last row takes the place of the removed one
+            int last = list[length];
+            list[slot] = last;
+            slots[WIDTH * last + position] = slot;
+            list[0]--;
+
+            if (0 == list[0]) {
+                lists[id] = null;
+            } else if (list.length > 16 && 4 * list[0] < list.length) {
+                lists[id] = Arrays.copyOf(list, list.length / 2);
+            }
+        }
+
+        void clear() {
+            lists = new int[1024][];
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package net.fortytwo.sesametools.caching;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.algebra.BNodeGenerator;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
+import org.eclipse.rdf4j.query.algebra.Service;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, least-recently-used cache of the materialized results of small queries.
+ * Results are keyed by the query expression, with anonymous variables renamed in order of appearance,
+ * together with the dataset, the bindings and the inference flag of the query.
+ * <p>
+ * When changes are committed, those entries whose statement patterns could match a changed statement
+ * are invalidated; the constants of a pattern are taken into account, but its context is not.
+ * Results computed concurrently with an invalidation are not admitted, nor are the results of queries
+ * which call a federated service or a function such as <code>NOW()</code> or <code>BNODE()</code>,
+ * whose results differ from one evaluation to the next.
+ * If a time to live is set, results are discarded once that time has elapsed since they were cached.
+ * All methods are synchronized.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class QueryResultCache {
+
+    /**
+     * An immutable key identifying a query and the context in which it is evaluated
+     */
+    static class Key {
+        private final TupleExpr expr;
+        private final List<Object> dataset;
+        private final BindingSet bindings;
+        private final boolean includeInferred;
+        private final int hashCode;
+
+        private Key(final TupleExpr expr,
+                    final List<Object> dataset,
+                    final BindingSet bindings,
+                    final boolean includeInferred) {
+            this.expr = expr;
+            this.dataset = dataset;
+            this.bindings = bindings;
+            this.includeInferred = includeInferred;
+            this.hashCode = Objects.hash(expr, dataset, bindings, includeInferred);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key k = (Key) other;
+            return hashCode == k.hashCode
+                    && includeInferred == k.includeInferred
+                    && expr.equals(k.expr)
+                    && Objects.equals(dataset, k.dataset)
+                    && bindings.equals(k.bindings);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static class Entry {
+        private final List<BindingSet> results;
+        private final List<CacheKey> patterns;
+        private final long createTime = System.nanoTime();
+
+        private Entry(final List<BindingSet> results, final List<CacheKey> patterns) {
+            this.results = results;
+            this.patterns = patterns;
+        }
+    }
+
+    // functions whose results differ from one evaluation to the next
+    private static final Set<String> NON_DETERMINISTIC_FUNCTIONS
+            = new HashSet<>(Arrays.asList("NOW", "RAND", "UUID", "STRUUID"));
+
+    private final int maxResultSize;
+    private final long timeToLiveNanos;
+    private final CacheStatistics statistics;
+    private final Map<Key, Entry> entries;
+
+    // incremented by every invalidation
+    private long epoch = 0;
+
+    /**
+     * @param capacity      the maximum number of queries whose results are cached
+     * @param maxResultSize    the maximum number of results of a cached query
+     * @param timeToLiveMillis the time for which results are kept, or 0 to keep them until they are invalidated
+     * @param statistics       the statistics in which cache hits and misses are recorded
+     */
+    QueryResultCache(final int capacity,
+                     final int maxResultSize,
+                     final long timeToLiveMillis,
+                     final CacheStatistics statistics) {
+        this.maxResultSize = maxResultSize;
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        this.statistics = statistics;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    static Key keyOf(final TupleExpr tupleExpr,
+                     final Dataset dataset,
+                     final BindingSet bindings,
+                     final boolean includeInferred) {
+        TupleExpr expr = tupleExpr.clone();
+        expr.visit(new AnonymousVarRenamer());
+
+        List<Object> datasetKey = null == dataset ? null : Arrays.asList(
+                new HashSet<>(dataset.getDefaultGraphs()),
+                new HashSet<>(dataset.getNamedGraphs()),
+                dataset.getDefaultInsertGraph(),
+                new HashSet<>(dataset.getDefaultRemoveGraphs()));
+
+        return new Key(expr, datasetKey, new QueryBindingSet(bindings), includeInferred);
+    }
+
+    int getMaxResultSize() {
+        return maxResultSize;
+    }
+
+    /**
+     * @return the cached results of the query, or <code>null</code> if they are not cached
+     */
+    synchronized List<BindingSet> get(final Key key) {
+        Entry entry = entries.get(key);
+        if (null != entry && timeToLiveNanos > 0 && System.nanoTime() - entry.createTime >= timeToLiveNanos) {
+            entries.remove(key);
+            entry = null;
+        }
+        statistics.recordQuery(null != entry);
+        if (null == entry) {
+            return null;
+        }
+
+        List<BindingSet> copies = new ArrayList<>(entry.results.size());
+        for (BindingSet bs : entry.results) {
+            copies.add(new QueryBindingSet(bs));
+        }
+        return copies;
+    }
+
+    /**
+     * @return a token to be passed to <code>put</code> along with results computed after this call
+     */
+    synchronized long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Caches the results of a query, provided that no invalidation has taken place since the given epoch
+     */
+    synchronized void put(final Key key, final List<BindingSet> results, final long epoch) {
+        if (epoch != this.epoch || results.size() > maxResultSize) {
+            return;
+        }
+
+        List<CacheKey> patterns = patternsOf(key.expr);
+        if (null == patterns) {
+            return;
+        }
+
+        List<BindingSet> copies = new ArrayList<>(results.size());
+        for (BindingSet bs : results) {
+            copies.add(new QueryBindingSet(bs));
+        }
+        entries.put(key, new Entry(copies, patterns));
+    }
+
+    /**
+     * Invalidates the results of all queries which may be affected by the given changes
+     */
+    synchronized void invalidate(final PendingChanges changes) {
+        epoch++;
+
+        for (PendingChanges.Change change : changes) {
+            entries.values().removeIf(entry -> isAffected(entry, change));
+        }
+    }
+
+    synchronized void clear() {
+        epoch++;
+        entries.clear();
+    }
+
+    private static boolean isAffected(final Entry entry, final PendingChanges.Change change) {
+        for (CacheKey pattern : entry.patterns) {
+            if (compatible(pattern.getSubject(), change.getSubject())
+                    && compatible(pattern.getPredicate(), change.getPredicate())
+                    && compatible(pattern.getObject(), change.getObject())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean compatible(final Value a, final Value b) {
+        return null == a || null == b || a.equals(b);
+    }
+
+    /**
+     * @return the statement patterns of a query, or <code>null</code> if the query should not be cached
+     * because its results depend on something other than the statements of the Sail
+     */
+    private static List<CacheKey> patternsOf(final TupleExpr expr) {
+        List<CacheKey> patterns = new ArrayList<>();
+        boolean[] cacheable = {true};
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(final StatementPattern node) {
+                Value s = valueOf(node.getSubjectVar());
+                Value p = valueOf(node.getPredicateVar());
+                patterns.add(new CacheKey(
+                        s instanceof Resource ? (Resource) s : null,
+                        p instanceof IRI ? (IRI) p : null,
+                        valueOf(node.getObjectVar())));
+            }
+
+            @Override
+            public void meet(final Service node) {
+                cacheable[0] = false;
+            }
+
+            @Override
+            public void meet(final FunctionCall node) {
+                if (isNonDeterministic(node.getURI())) {
+                    cacheable[0] = false;
+                } else {
+                    super.meet(node);
+                }
+            }
+
+            @Override
+            public void meet(final BNodeGenerator node) {
+                cacheable[0] = false;
+            }
+        });
+
+        return cacheable[0] && !patterns.isEmpty() ? patterns : null;
+    }
+
+    // the SPARQL parser names built-in functions by keyword; other parsers may use a full IRI
+    private static boolean isNonDeterministic(final String function) {
+        String name = function.substring(Math.max(function.lastIndexOf('#'), function.lastIndexOf('/')) + 1);
+        return NON_DETERMINISTIC_FUNCTIONS.contains(name.toUpperCase());
+    }
+
+    private static Value valueOf(final Var var) {
+        return null == var ? null : var.getValue();
+    }
+
+    /**
+     * Renames anonymous variables in order of appearance, as the parser gives them arbitrary unique names
+     */
+    private static class AnonymousVarRenamer extends AbstractQueryModelVisitor<RuntimeException> {
+        private final Map<String, String> names = new HashMap<>();
+
+        @Override
+        public void meet(final Var node) {
+            if (node.isAnonymous() && !node.hasValue()) {
+                node.setName(names.computeIfAbsent(node.getName(), n -> "_anon_" + names.size()));
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package net.fortytwo.sesametools.caching;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An <code>EvictionPolicy</code> after W-TinyLFU.
+ * New keys enter a small LRU admission window.
+ * Keys which overflow the window become candidates for the main space, which is a segmented LRU
+ * divided into probation and protected segments.
+ * When the cache is over capacity, a candidate competes with the least recently used key in probation,
+ * and whichever has been accessed less often, as estimated by a <code>FrequencySketch</code>, is evicted.
+ * This keeps one-off scans from flushing frequently used keys out of the cache.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class TinyLfuEvictionPolicy implements EvictionPolicy {
+    private static final double WINDOW_FRACTION = 0.01;
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    private final FrequencySketch sketch;
+
+    private final long windowCapacity;
+    private final long protectedCapacity;
+
+    // all segments are kept in order from least to most recently used
+    private final LinkedHashMap<CacheKey, Long> window = new LinkedHashMap<>();
+    private final LinkedHashMap<CacheKey, Long> candidates = new LinkedHashMap<>();
+    private final LinkedHashMap<CacheKey, Long> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<CacheKey, Long> protectedSegment = new LinkedHashMap<>();
+
+    private long windowWeight = 0;
+    private long protectedWeight = 0;
+
+    /**
+     * @param capacity the total weight, in statements, of the cache
+     */
+    public TinyLfuEvictionPolicy(final long capacity) {
+        windowCapacity = Math.max(1, (long) (capacity * WINDOW_FRACTION));
+        protectedCapacity = (long) ((capacity - windowCapacity) * PROTECTED_FRACTION);
+
+        sketch = new FrequencySketch(capacity);
+    }
+
+    public void recordAdmission(final CacheKey key, final long weight) {
+        sketch.increment(key);
+
+        window.put(key, weight);
+        windowWeight += weight;
+
+        // the most recently admitted key always stays in the window
+        while (windowWeight > windowCapacity && window.size() > 1) {
+            Map.Entry<CacheKey, Long> lru = removeFirst(window);
+            windowWeight -= lru.getValue();
+            candidates.put(lru.getKey(), lru.getValue());
+        }
+    }
+
+    public void recordAccess(final CacheKey key) {
+        sketch.increment(key);
+
+        Long weight;
+        if (null != (weight = window.remove(key))) {
+            window.put(key, weight);
+        } else if (null != (weight = protectedSegment.remove(key))) {
+            protectedSegment.put(key, weight);
+        } else if (null != (weight = probation.remove(key))
+                || null != (weight = candidates.remove(key))) {
+            protectedSegment.put(key, weight);
+            protectedWeight += weight;
+
+            while (protectedWeight > protectedCapacity && protectedSegment.size() > 1) {
+                Map.Entry<CacheKey, Long> lru = removeFirst(protectedSegment);
+                protectedWeight -= lru.getValue();
+                probation.put(lru.getKey(), lru.getValue());
+            }
+        }
+    }
+
+    public void recordRemoval(final CacheKey key) {
+        Long weight;
+        if (null != (weight = window.remove(key))) {
+            windowWeight -= weight;
+        } else if (null != (weight = protectedSegment.remove(key))) {
+            protectedWeight -= weight;
+        } else if (null == probation.remove(key)) {
+            candidates.remove(key);
+        }
+    }
+
+    public CacheKey selectVictim() {
+        CacheKey candidate = firstKey(candidates);
+        CacheKey victim = firstKey(probation);
+        if (null == victim) {
+            victim = firstKey(protectedSegment);
+        }
+
+        if (null == candidate) {
+            return null == victim ? firstKey(window) : victim;
+        } else if (null == victim) {
+            return candidate;
+        }
+
+        if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+            // the candidate wins admission to the main space, and the victim is evicted
+            probation.put(candidate, candidates.remove(candidate));
+            return victim;
+        } else {
+            return candidate;
+        }
+    }
+
+    private static CacheKey firstKey(final LinkedHashMap<CacheKey, Long> segment) {
+        Iterator<CacheKey> iter = segment.keySet().iterator();
+        return iter.hasNext() ? iter.next() : null;
+    }
+
+    private static Map.Entry<CacheKey, Long> removeFirst(final LinkedHashMap<CacheKey, Long> segment) {
+        Iterator<Map.Entry<CacheKey, Long>> iter = segment.entrySet().iterator();
+        Map.Entry<CacheKey, Long> first = iter.next();
+        iter.remove();
+        return first;
+    }
+}
@@ -0,0 +1,221 @@
+package net.fortytwo.sesametools.caching;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+
+import java.util.Arrays;
+
+/**
+ * A reference-counted mapping between RDF values and dense integer ids.
+ * Each distinct value is stored once, and the reverse mapping is an open-addressing table of ids,
+ * so that no per-entry objects are allocated.
+ * Ids of values which are no longer referenced are recycled.
+ * The id 0 is reserved, and never assigned to a value.
+ * This class is not thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class ValueDictionary {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ValueFactory valueFactory;
+
+    // indexed by id
+    private Value[] values = new Value[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[] refCounts = new int[INITIAL_CAPACITY];
+
+    // slots hold ids, with 0 marking an empty slot
+    private int[] table = new int[2 * INITIAL_CAPACITY];
+
+    private int[] freeIds = new int[16];
+    private int freeCount = 0;
+    private int nextId = 1;
+    private int size = 0;
+
+    ValueDictionary(final ValueFactory valueFactory) {
+        this.valueFactory = valueFactory;
+    }
+
+    /**
+     * @param value a value
+     * @return the id of the value, or 0 if the value is not in the dictionary
+     */
+    int lookup(final Value value) {
+        int hash = hash(value);
+        int mask = table.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = table[i];
+            if (0 == id) {
+                return 0;
+            } else if (hashes[id] == hash && values[id].equals(value)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Adds a reference to a value, adding the value to the dictionary if necessary
+     *
+     * @param value a value
+     * @return the id of the value
+     */
+    int acquire(final Value value) {
+        int id = lookup(value);
+        if (0 == id) {
+            id = insert(value);
+        }
+
+        refCounts[id]++;
+        return id;
+    }
+
+    /**
+     * Adds a reference to a value which is already in the dictionary
+     *
+     * @param id the id of the value
+     */
+    void retain(final int id) {
+        refCounts[id]++;
+    }
+
+    /**
+     * Removes a reference to a value, removing the value from the dictionary if it is no longer referenced
+     *
+     * @param id the id of the value
+     * @return whether the value was removed
+     */
+    boolean release(final int id) {
+        if (0 != --refCounts[id]) {
+            return false;
+        }
+
+        delete(id);
+        return true;
+    }
+
+    Value get(final int id) {
+        return values[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return an upper bound on the ids which have been assigned
+     */
+    int maxId() {
+        return nextId;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        Arrays.fill(refCounts, 0);
+        Arrays.fill(table, 0);
+        freeCount = 0;
+        nextId = 1;
+        size = 0;
+    }
+
+    private int insert(final Value value) {
+        if (2 * (size + 1) > table.length) {
+            rehash(2 * table.length);
+        }
+
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            id = nextId++;
+            if (id == values.length) {
+                int length = 2 * values.length;
+                values = Arrays.copyOf(values, length);
+                hashes = Arrays.copyOf(hashes, length);
+                refCounts = Arrays.copyOf(refCounts, length);
+            }
+        }
+
+        values[id] = copyOf(value);
+        hashes[id] = hash(value);
+        refCounts[id] = 0;
+        place(id);
+        size++;
+
+        return id;
+    }
+
+    private void delete(final int id) {
+        int mask = table.length - 1;
+        int i = hashes[id] & mask;
+        while (table[i] != id) {
+            i = (i + 1) & mask;
+        }
+
+        // shift back any entries which were displaced past the deleted slot
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            int other = table[j];
+            if (0 == other) {
+                break;
+            }
+
+            int home = hashes[other] & mask;
+            boolean movable = (j > i) ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                table[i] = other;
+                i = j;
+            }
+        }
+        table[i] = 0;
+
+        values[id] = null;
+        size--;
+
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, 2 * freeIds.length);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    private void rehash(final int length) {
+        table = new int[length];
+        for (int id = 1; id < nextId; id++) {
+            if (null != values[id]) {
+                place(id);
+            }
+        }
+    }
+
+    private void place(final int id) {
+        int mask = table.length - 1;
+        int i = hashes[id] & mask;
+        while (0 != table[i]) {
+            i = (i + 1) & mask;
+        }
+        table[i] = id;
+    }
+
+    // Values are copied so that the dictionary does not hold on to objects owned by another store.
+    private Value copyOf(final Value value) {
+        if (value instanceof IRI) {
+            return valueFactory.createIRI(value.stringValue());
+        } else if (value instanceof BNode) {
+            return valueFactory.createBNode(value.stringValue());
+        } else {
+            Literal l = (Literal) value;
+            return l.getLanguage().isPresent()
+                    ? valueFactory.createLiteral(l.getLabel(), l.getLanguage().get())
+                    : valueFactory.createLiteral(l.getLabel(), l.getDatatype());
+        }
+    }
+
+    private static int hash(final Value value) {
+        int h = value.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
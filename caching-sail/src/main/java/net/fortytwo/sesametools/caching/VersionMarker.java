@@ -0,0 +1,20 @@
+package net.fortytwo.sesametools.caching;
+
+import org.eclipse.rdf4j.sail.SailException;
+
+/**
+ * A source of the current version of the contents of the base Sail of a <code>CachingSail</code>,
+ * e.g. a revision number or the time of the last update, by which a cache snapshot is checked for staleness.
+ * A snapshot is restored only if it was taken at the same version as the base Sail is in at startup.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public interface VersionMarker {
+
+    /**
+     * @return the current version of the base Sail, or <code>null</code> if it cannot be determined,
+     * in which case no snapshot is restored
+     * @throws SailException if the version cannot be retrieved
+     */
+    String getVersion() throws SailException;
+}
@@ -6,9 +6,21 @@ import net.fortytwo.sesametools.replay.RecorderSail;
 import net.fortytwo.sesametools.replay.SailConnectionCall;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.BNodeGenerator;
+import org.eclipse.rdf4j.query.algebra.Extension;
+import org.eclipse.rdf4j.query.algebra.ExtensionElem;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.sail.SailRepository;
@@ -20,9 +32,18 @@ import org.eclipse.rdf4j.sail.memory.MemoryStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Joshua Shinavier (http://fortytwo.net)
@@ -34,6 +55,9 @@ public class CachingSailTest {
     private static final String NS = "http://example.org/ns/";
     private static final long CAPACITY = 10000000l;
 
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
     private Sail baseSail;
     private SailCounter counter;
     private SailConnection sc;
@@ -47,11 +71,7 @@ public class CachingSailTest {
         cachingSail = new CachingSail(recorderSail, true, false, false, CAPACITY);
         cachingSail.initialize();
 
-        Repository repo = new SailRepository(baseSail);
-        RepositoryConnection rc = repo.getConnection();
-        InputStream is = CachingSailTest.class.getResourceAsStream("cachingSailTest.trig");
-        rc.add(is, "", RDFFormat.TRIG);
-        rc.close();
+        loadTestData(baseSail);
 
         sc = cachingSail.getConnection();
     }
@@ -82,20 +102,25 @@ public class CachingSailTest {
     public void testSubjectCaching() throws Exception {
         int count;
 
-        // Subject "one" is not yet cached.
+        // The pattern (one, two, *) is not yet cached.
         counter.reset();
         count = countStatements(sc.getStatements(uri("one"), uri("two"), null, false));
         assertEquals(1, count);
         assertEquals(1, counter.getGets());
-        // Subject "one" is now cached, so the base Sail should not be queried.
+        // The pattern is now cached, so the base Sail should not be queried.
         counter.reset();
         count = countStatements(sc.getStatements(uri("one"), uri("two"), null, false));
         assertEquals(1, count);
         assertEquals(0, counter.getGets());
-        // Different query, same caching behavior.
+        // A more general pattern is not covered by the cached one.
         counter.reset();
         count = countStatements(sc.getStatements(uri("one"), null, null, false));
         assertEquals(2, count);
+        assertEquals(1, counter.getGets());
+        // ...but it covers more specific patterns.
+        counter.reset();
+        count = countStatements(sc.getStatements(uri("one"), uri("four"), null, false));
+        assertEquals(1, count);
         assertEquals(0, counter.getGets());
         // A query with a wildcard subject must be relayed to the base Sail.
         counter.reset();
@@ -105,6 +130,126 @@ public class CachingSailTest {
 
     }
 
+    @Test
+    public void testMaxPatternCardinality() throws Exception {
+        CachingSail limitedSail = new CachingSail(new RecorderSail(new MemoryStore(), counter),
+                true, false, false, CAPACITY);
+        limitedSail.setMaxPatternCardinality(1);
+        limitedSail.initialize();
+        loadTestData(((RecorderSail) limitedSail.getBaseSail()).getBaseSail());
+        SailConnection limitedConnection = limitedSail.getConnection();
+        try {
+            // (one, *, *) has too many statements to cache, and is always relayed to the base Sail.
+            counter.reset();
+            assertEquals(2, countStatements(limitedConnection.getStatements(uri("one"), null, null, false)));
+            assertEquals(2, countStatements(limitedConnection.getStatements(uri("one"), null, null, false)));
+            assertEquals(2, counter.getGets());
+
+            // (one, two, *) is small enough.
+            counter.reset();
+            assertEquals(1, countStatements(limitedConnection.getStatements(uri("one"), uri("two"), null, false)));
+            assertEquals(1, countStatements(limitedConnection.getStatements(uri("one"), uri("two"), null, false)));
+            assertEquals(1, counter.getGets());
+        } finally {
+            limitedConnection.close();
+            limitedSail.shutDown();
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        // Room for only one of the two subjects at a time.
+        CachingSail smallSail = new CachingSail(new RecorderSail(new MemoryStore(), counter), true, false, false, 2);
+        smallSail.initialize();
+        loadTestData(((RecorderSail) smallSail.getBaseSail()).getBaseSail());
+        SailConnection smallConnection = smallSail.getConnection();
+        try {
+            counter.reset();
+            assertEquals(2, countStatements(smallConnection.getStatements(uri("one"), null, null, false)));
+            assertEquals(2, countStatements(smallConnection.getStatements(uri("six"), null, null, false)));
+            assertEquals(2, counter.getGets());
+
+            // One of the subjects has been evicted, so at least one more query must be relayed to the base Sail.
+            counter.reset();
+            assertEquals(2, countStatements(smallConnection.getStatements(uri("one"), null, null, false)));
+            assertEquals(2, countStatements(smallConnection.getStatements(uri("six"), null, null, false)));
+            assertTrue(counter.getGets() > 0);
+        } finally {
+            smallConnection.close();
+            smallSail.shutDown();
+        }
+    }
+
+    @Test
+    public void testDictionaryCacheStore() throws Exception {
+        CachingSail dictionarySail = new CachingSail(new RecorderSail(new MemoryStore(), counter),
+                true, false, false, CAPACITY, CachingSail.CacheStore.DICTIONARY);
+        dictionarySail.initialize();
+        loadTestData(((RecorderSail) dictionarySail.getBaseSail()).getBaseSail());
+        SailConnection dictionaryConnection = dictionarySail.getConnection();
+        try {
+            counter.reset();
+            assertEquals(2, countStatements(dictionaryConnection.getStatements(uri("one"), null, null, false)));
+            assertEquals(1, countStatements(dictionaryConnection.getStatements(uri("one"), uri("two"), null, false)));
+            assertEquals(1, counter.getGets());
+        } finally {
+            dictionaryConnection.close();
+            dictionarySail.shutDown();
+        }
+    }
+
+    @Test
+    public void testConcurrentMisses() throws Exception {
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new LinkedList<>();
+
+        counter.reset();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                SailConnection c = cachingSail.getConnection();
+                try {
+                    start.await();
+                    return countStatements(c.getStatements(uri("one"), null, null, false));
+                } finally {
+                    c.close();
+                }
+            }));
+        }
+        start.countDown();
+
+        for (Future<Integer> result : results) {
+            assertEquals(2, (int) result.get());
+        }
+        executor.shutdown();
+
+        // All of the threads missed on the same subject, but the base Sail was queried only once.
+        assertEquals(1, counter.getGets());
+    }
+
+    @Test
+    public void testNestedLookupDoesNotWaitForFill() throws Exception {
+        counter.reset();
+        long start = System.currentTimeMillis();
+        CloseableIteration<? extends Statement, SailException> outer
+                = sc.getStatements(uri("one"), null, null, false);
+        try {
+            // each outer statement is joined with the statements of the same subject, before the outer is exhausted
+            int count = 0;
+            while (outer.hasNext()) {
+                outer.next();
+                count += countStatements(sc.getStatements(uri("one"), null, null, false));
+            }
+            assertEquals(4, count);
+        } finally {
+            outer.close();
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertEquals(1, counter.getGets());
+    }
+
     @Test
     public void testWrite() throws Exception {
         int count;
@@ -134,6 +279,261 @@ public class CachingSailTest {
         assertEquals(0, count);
     }
 
+    @Test
+    public void testNegativeCaching() throws Exception {
+        // An absent subject is looked up in the base Sail only once.
+        counter.reset();
+        assertEquals(0, countStatements(sc.getStatements(uri("absent"), null, null, false)));
+        assertEquals(0, countStatements(sc.getStatements(uri("absent"), null, null, false)));
+        assertEquals(0, countStatements(sc.getStatements(uri("absent"), uri("two"), null, false)));
+        assertEquals(1, counter.getGets());
+
+        // Adding a statement about the subject invalidates the negative entry.
+        sc.begin();
+        sc.addStatement(uri("absent"), uri("two"), uri("three"));
+        sc.commit();
+        counter.reset();
+        assertEquals(1, countStatements(sc.getStatements(uri("absent"), uri("two"), null, false)));
+        assertEquals(1, counter.getGets());
+    }
+
+    @Test
+    public void testWriteThroughAndRollback() throws Exception {
+        assertEquals(2, countStatements(sc.getStatements(uri("one"), null, null, false)));
+
+        // Rolled-back changes never reach the cache.
+        sc.begin();
+        sc.addStatement(uri("one"), uri("ten"), uri("eleven"));
+        sc.removeStatements(uri("one"), uri("two"), null);
+        sc.rollback();
+        counter.reset();
+        assertEquals(2, countStatements(sc.getStatements(uri("one"), null, null, false)));
+        assertEquals(1, countStatements(sc.getStatements(uri("one"), uri("two"), null, false)));
+        assertEquals(0, counter.getGets());
+
+        // Committed changes are written through to cached keys.
+        sc.begin();
+        sc.addStatement(uri("one"), uri("ten"), uri("eleven"));
+        sc.removeStatements(uri("one"), uri("two"), null);
+        sc.commit();
+        counter.reset();
+        assertEquals(2, countStatements(sc.getStatements(uri("one"), null, null, false)));
+        assertEquals(1, countStatements(sc.getStatements(uri("one"), uri("ten"), null, false)));
+        assertEquals(0, countStatements(sc.getStatements(uri("one"), uri("two"), null, false)));
+        assertEquals(0, counter.getGets());
+    }
+
+    @Test
+    public void testQueryResultCaching() throws Exception {
+        // Statements are not cached by predicate, so only the query result cache can spare the base Sail.
+        TupleExpr query = new StatementPattern(new Var("s"), new Var("p", uri("two")), new Var("o"));
+
+        counter.reset();
+        assertEquals(1, countResults(sc.evaluate(query, null, new EmptyBindingSet(), false)));
+        assertEquals(1, countResults(sc.evaluate(query, null, new EmptyBindingSet(), false)));
+        assertEquals(1, counter.getGets());
+
+        // An unrelated change leaves the cached results in place.
+        sc.begin();
+        sc.addStatement(uri("six"), uri("ten"), uri("eleven"));
+        sc.commit();
+        counter.reset();
+        assertEquals(1, countResults(sc.evaluate(query, null, new EmptyBindingSet(), false)));
+        assertEquals(0, counter.getGets());
+
+        // A change to a matching statement invalidates them.
+        sc.begin();
+        sc.addStatement(uri("six"), uri("two"), uri("eleven"));
+        sc.commit();
+        counter.reset();
+        assertEquals(2, countResults(sc.evaluate(query, null, new EmptyBindingSet(), false)));
+        assertEquals(1, counter.getGets());
+    }
+
+    @Test
+    public void testNonDeterministicQueriesAreNotCached() throws Exception {
+        TupleExpr pattern = new StatementPattern(new Var("s"), new Var("p", uri("two")), new Var("o"));
+        TupleExpr[] queries = {
+                new Extension(pattern.clone(), new ExtensionElem(new FunctionCall("RAND"), "r")),
+                new Extension(pattern.clone(), new ExtensionElem(new FunctionCall("NOW"), "t")),
+                new Extension(pattern.clone(), new ExtensionElem(new BNodeGenerator(), "b"))};
+
+        for (TupleExpr query : queries) {
+            counter.reset();
+            assertEquals(1, countResults(sc.evaluate(query, null, new EmptyBindingSet(), false)));
+            assertEquals(1, countResults(sc.evaluate(query, null, new EmptyBindingSet(), false)));
+            assertEquals(2, counter.getGets());
+        }
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        CacheStatistics stats = cachingSail.getStatistics();
+        stats.reset();
+
+        countStatements(sc.getStatements(uri("one"), null, null, false));
+        countStatements(sc.getStatements(uri("one"), uri("two"), null, false));
+        countStatements(sc.getStatements(uri("absent"), null, null, false));
+        countStatements(sc.getStatements(uri("absent"), null, null, false));
+
+        assertEquals(2, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(1, stats.getNegativeHits());
+        assertEquals(1, stats.getPredicateHits());
+        assertEquals(0, stats.getPredicateMisses());
+        assertEquals(2, stats.getSubjectMisses());
+        assertEquals(2, stats.getFills());
+        assertEquals(2, stats.getFillStatements());
+        assertEquals(0.5, stats.getHitRate(), 0.0);
+
+        // what adaptive key selection has learned survives a reset of the metrics
+        stats.reset();
+        assertEquals(0, stats.getFills());
+        assertEquals(2, stats.getShapeFills(new CacheKey(uri("one"), null, null).shape()));
+    }
+
+    @Test
+    public void testAdaptiveKeySelection() throws Exception {
+        // No positions are enabled, but any bound pattern may be cached under adaptive selection.
+        CachingSail adaptive = newUnpositionedSail(true);
+        SailConnection c = adaptive.getConnection();
+        counter.reset();
+        assertEquals(1, countStatements(c.getStatements(null, uri("two"), null, false)));
+        assertEquals(1, countStatements(c.getStatements(null, uri("two"), null, false)));
+        assertEquals(1, counter.getGets());
+        assertEquals(1, adaptive.getStatistics().getHits());
+        c.close();
+        adaptive.shutDown();
+
+        // Without adaptive selection, the pattern is not cached at all.
+        CachingSail fixed = newUnpositionedSail(false);
+        c = fixed.getConnection();
+        counter.reset();
+        assertEquals(1, countStatements(c.getStatements(null, uri("two"), null, false)));
+        assertEquals(1, countStatements(c.getStatements(null, uri("two"), null, false)));
+        assertEquals(2, counter.getGets());
+        c.close();
+        fixed.shutDown();
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        MemoryStore base = new MemoryStore();
+        CachingSail sail = new CachingSail(base, true, false, false, CAPACITY);
+        sail.setTimeToLive(50);
+        // loaded patterns are written to the cache at once, rather than held in memory
+        sail.setFillBatchSize(1);
+        sail.initialize();
+        loadTestData(base);
+        SailConnection c = sail.getConnection();
+
+        assertEquals(2, countStatements(c.getStatements(uri("one"), null, null, false)));
+
+        // A statement added behind the back of the caching Sail is not seen at first...
+        SailConnection bc = base.getConnection();
+        bc.begin();
+        bc.addStatement(uri("one"), uri("two"), uri("twelve"));
+        bc.commit();
+        bc.close();
+        assertEquals(2, countStatements(c.getStatements(uri("one"), null, null, false)));
+
+        // ...but it is seen once the cached pattern has been refreshed or has expired.
+        long timeout = System.currentTimeMillis() + 5000;
+        int count;
+        do {
+            Thread.sleep(10);
+            count = countStatements(c.getStatements(uri("one"), null, null, false));
+        } while (3 != count && System.currentTimeMillis() < timeout);
+        assertEquals(3, count);
+        assertTrue(sail.getStatistics().getRefreshes() + sail.getStatistics().getExpirations() > 0);
+
+        c.close();
+        sail.shutDown();
+    }
+
+    @Test
+    public void testMetadataCaching() throws Exception {
+        counter.reset();
+        int namespaces = countIterations(sc.getNamespaces());
+        int contexts = countIterations(sc.getContextIDs());
+        long size = sc.size();
+        assertEquals(namespaces, countIterations(sc.getNamespaces()));
+        assertEquals(contexts, countIterations(sc.getContextIDs()));
+        assertEquals(size, sc.size());
+        assertEquals(3, counter.getMetadataGets());
+
+        // Committed changes invalidate the cached metadata.
+        sc.begin();
+        sc.setNamespace("ex", NS);
+        sc.addStatement(uri("six"), uri("ten"), uri("eleven"), uri("graph"));
+        sc.commit();
+        counter.reset();
+        assertEquals(namespaces + 1, countIterations(sc.getNamespaces()));
+        assertEquals(NS, sc.getNamespace("ex"));
+        assertEquals(contexts + 1, countIterations(sc.getContextIDs()));
+        assertEquals(size + 1, sc.size());
+        assertEquals(3, counter.getMetadataGets());
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        File file = tempDir.newFile("cache.snapshot");
+        String[] version = {"v1"};
+
+        CachingSail first = newSnapshotSail(file, version);
+        SailConnection c = first.getConnection();
+        assertEquals(2, countStatements(c.getStatements(uri("one"), null, null, false)));
+        c.close();
+        first.shutDown();
+
+        // A restarted Sail with an unchanged base comes up warm.
+        CachingSail second = newSnapshotSail(file, version);
+        c = second.getConnection();
+        counter.reset();
+        assertEquals(2, countStatements(c.getStatements(uri("one"), null, null, false)));
+        assertEquals(1, countStatements(c.getStatements(uri("one"), uri("two"), null, false)));
+        assertEquals(0, counter.getGets());
+        c.close();
+        second.shutDown();
+
+        // A stale snapshot is ignored.
+        version[0] = "v2";
+        CachingSail third = newSnapshotSail(file, version);
+        c = third.getConnection();
+        counter.reset();
+        assertEquals(2, countStatements(c.getStatements(uri("one"), null, null, false)));
+        assertEquals(1, counter.getGets());
+        c.close();
+        third.shutDown();
+    }
+
+    private CachingSail newUnpositionedSail(final boolean adaptive) throws Exception {
+        MemoryStore base = new MemoryStore();
+        CachingSail sail = new CachingSail(new RecorderSail(base, counter), false, false, false, CAPACITY);
+        sail.setAdaptiveKeySelection(adaptive);
+        sail.initialize();
+        loadTestData(base);
+        return sail;
+    }
+
+    private CachingSail newSnapshotSail(final File file, final String[] version) throws Exception {
+        MemoryStore base = new MemoryStore();
+        CachingSail sail = new CachingSail(new RecorderSail(base, counter), true, false, false, CAPACITY);
+        sail.setSnapshotFile(file);
+        sail.setVersionMarker(() -> version[0]);
+        sail.initialize();
+        loadTestData(base);
+        return sail;
+    }
+
+    private void loadTestData(final Sail sail) throws Exception {
+        Repository repo = new SailRepository(sail);
+        RepositoryConnection rc = repo.getConnection();
+        InputStream is = CachingSailTest.class.getResourceAsStream("cachingSailTest.trig");
+        rc.add(is, "", RDFFormat.TRIG);
+        rc.close();
+    }
+
     private IRI uri(final String localName) {
         return baseSail.getValueFactory().createIRI(NS + localName);
     }
@@ -149,21 +549,59 @@ public class CachingSailTest {
         return count;
     }
 
+    private int countIterations(final CloseableIteration<?, SailException> iter) throws SailException {
+        int count = 0;
+        try {
+            while (iter.hasNext()) {
+                iter.next();
+                count++;
+            }
+        } finally {
+            iter.close();
+        }
+        return count;
+    }
+
+    private int countResults(final CloseableIteration<? extends BindingSet, QueryEvaluationException> iter)
+            throws QueryEvaluationException {
+        int count = 0;
+        while (iter.hasNext()) {
+            count++;
+            iter.next();
+        }
+        iter.close();
+        return count;
+    }
+
     private class SailCounter implements Handler<SailConnectionCall, SailException> {
-        private int gets = 0;
+        private final AtomicInteger gets = new AtomicInteger(0);
+        private final AtomicInteger metadataGets = new AtomicInteger(0);
         
         public void handle(final SailConnectionCall call) throws SailException {
-            if (call.getType() == SailConnectionCall.Type.GET_STATEMENTS) {
-                gets++;
+            switch (call.getType()) {
+                case GET_STATEMENTS:
+                    gets.incrementAndGet();
+                    break;
+                case GET_NAMESPACES:
+                case GET_CONTEXT_IDS:
+                case SIZE:
+                    metadataGets.incrementAndGet();
+                    break;
+                default:
             }
         }
         
         public void reset() {
-            gets = 0;
+            gets.set(0);
+            metadataGets.set(0);
         }
         
         public int getGets() {
-            return gets;
+            return gets.get();
+        }
+
+        public int getMetadataGets() {
+            return metadataGets.get();
         }
     }
 }
@@ -0,0 +1,243 @@
+package net.fortytwo.sesametools.caching;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class DictionaryStoreTest {
+    private static final String NS = "http://example.org/ns/";
+
+    private DictionaryStore store;
+    private SailConnection sc;
+    private ValueFactory vf;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new DictionaryStore();
+        store.initialize();
+        vf = store.getValueFactory();
+        sc = store.getConnection();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sc.close();
+        store.shutDown();
+    }
+
+    @Test
+    public void testAddAndMatch() throws Exception {
+        IRI a = uri("a"), b = uri("b"), c = uri("c"), g = uri("g");
+        Literal l = vf.createLiteral("c", "en");
+
+        sc.begin();
+        sc.addStatement(a, b, c);
+        sc.addStatement(a, b, c);
+        sc.addStatement(a, b, l);
+        sc.addStatement(c, b, a, g);
+        sc.commit();
+
+        assertEquals(3, sc.size());
+        assertEquals(1, sc.size(g));
+        assertEquals(2, sc.size((IRI) null));
+        assertEquals(3, count(sc.getStatements(null, null, null, false)));
+        assertEquals(2, count(sc.getStatements(a, null, null, false)));
+        assertEquals(1, count(sc.getStatements(null, null, l, false)));
+        assertEquals(1, count(sc.getStatements(null, b, a, false, g)));
+        assertEquals(0, count(sc.getStatements(null, b, a, false, (IRI) null)));
+        assertEquals(0, count(sc.getStatements(uri("unknown"), null, null, false)));
+        assertEquals(1, count(sc.getContextIDs()));
+    }
+
+    @Test
+    public void testRemoveReleasesValues() throws Exception {
+        IRI a = uri("a"), b = uri("b"), c = uri("c");
+
+        sc.begin();
+        sc.addStatement(a, b, c);
+        sc.addStatement(c, b, a);
+        sc.commit();
+        assertEquals(3, store.getDictionarySize());
+
+        sc.begin();
+        sc.removeStatements(a, null, null);
+        sc.commit();
+        assertEquals(1, sc.size());
+        assertEquals(3, store.getDictionarySize());
+
+        sc.begin();
+        sc.removeStatements(null, b, null);
+        sc.commit();
+        assertEquals(0, sc.size());
+        assertEquals(0, store.getDictionarySize());
+
+        // recycled ids and rows are reused
+        sc.begin();
+        sc.addStatement(b, b, b);
+        sc.commit();
+        assertEquals(1, count(sc.getStatements(b, b, b, false)));
+        assertEquals(0, count(sc.getStatements(a, null, null, false)));
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        IRI a = uri("a"), b = uri("b"), c = uri("c");
+
+        sc.begin();
+        sc.addStatement(a, b, c);
+        sc.commit();
+
+        sc.begin();
+        sc.addStatement(c, b, a);
+        sc.removeStatements(a, b, c);
+        sc.rollback();
+
+        assertEquals(1, sc.size());
+        assertEquals(1, count(sc.getStatements(a, b, c, false)));
+        assertEquals(0, count(sc.getStatements(c, b, a, false)));
+    }
+
+    @Test
+    public void testRemoveDuringIteration() throws Exception {
+        IRI p = uri("p"), o = uri("o");
+
+        sc.begin();
+        for (int i = 0; i < 1000; i++) {
+            sc.addStatement(uri("s" + i), p, o);
+        }
+        sc.commit();
+
+        // each statement is removed as it is read, moving other rows within the posting list
+        Set<Statement> seen = new HashSet<>();
+        sc.begin();
+        try (CloseableIteration<? extends Statement, SailException> iter = sc.getStatements(null, p, null, false)) {
+            while (iter.hasNext()) {
+                Statement st = iter.next();
+                assertTrue(seen.add(st));
+                sc.removeStatements(st.getSubject(), null, null);
+            }
+        }
+        sc.commit();
+
+        assertEquals(1000, seen.size());
+        assertEquals(0, sc.size());
+        assertEquals(0, store.getDictionarySize());
+    }
+
+    @Test
+    public void testRollbackRestoresReleasedValues() throws Exception {
+        IRI a = uri("a"), b = uri("b"), c = uri("c");
+
+        sc.begin();
+        sc.addStatement(a, b, c);
+        sc.commit();
+
+        // the values are held by the transaction, although no statement refers to them
+        sc.begin();
+        sc.removeStatements(a, b, c);
+        sc.addStatement(c, b, a);
+        sc.removeStatements(c, b, a);
+        assertEquals(0, sc.size());
+        assertEquals(3, store.getDictionarySize());
+        sc.rollback();
+
+        assertEquals(1, sc.size());
+        assertEquals(1, count(sc.getStatements(a, b, c, false)));
+        assertEquals(3, store.getDictionarySize());
+    }
+
+    @Test
+    public void testIdsOfOpenIterationAreNotRecycled() throws Exception {
+        IRI s = uri("s"), t = uri("t"), y = uri("y"), p = uri("p");
+        Literal one = vf.createLiteral("1"), two = vf.createLiteral("2");
+
+        sc.begin();
+        sc.addStatement(s, p, one);
+        sc.addStatement(s, p, two);
+        sc.addStatement(t, p, two);
+        sc.commit();
+
+        try (CloseableIteration<? extends Statement, SailException> iter = sc.getStatements(s, null, null, false)) {
+            assertTrue(iter.hasNext());
+            assertEquals(s, iter.next().getSubject());
+
+            // the id of s is released by the removal, and would otherwise be given to y
+            sc.begin();
+            sc.removeStatements(s, null, null);
+            sc.commit();
+            sc.begin();
+            sc.addStatement(y, p, two);
+            sc.commit();
+
+            while (iter.hasNext()) {
+                assertEquals(s, iter.next().getSubject());
+            }
+        }
+
+        assertEquals(2, sc.size());
+        assertEquals(4, store.getDictionarySize());
+    }
+
+    @Test
+    public void testQuadTableRemoval() throws Exception {
+        QuadTable table = new QuadTable();
+        int n = 10000;
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            // all in the default graph, and with one of a few predicates
+            rows[i] = table.add(i + 1, 1 + i % 3, 1, 0);
+        }
+
+        Random random = new Random(42);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = rows[i];
+            rows[i] = rows[j];
+            rows[j] = t;
+        }
+
+        for (int i = 0; i < n; i++) {
+            int row = rows[i];
+            int s = table.get(row, QuadTable.SUBJECT);
+            assertEquals(row, table.find(s, 1 + (s - 1) % 3, 1, 0));
+            table.remove(row);
+            assertEquals(-1, table.find(s, 1 + (s - 1) % 3, 1, 0));
+            assertEquals(n - i - 1, table.count(QuadTable.CONTEXT, 0));
+        }
+        assertEquals(0, table.size());
+    }
+
+    private IRI uri(final String localName) {
+        return vf.createIRI(NS + localName);
+    }
+
+    private int count(final CloseableIteration<?, SailException> iter) throws SailException {
+        int count = 0;
+        try {
+            while (iter.hasNext()) {
+                iter.next();
+                count++;
+            }
+        } finally {
+            iter.close();
+        }
+        return count;
+    }
+}
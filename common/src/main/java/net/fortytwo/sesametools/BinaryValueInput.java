@@ -0,0 +1,171 @@
+package net.fortytwo.sesametools;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A decoder for values, integers and strings written by a <code>BinaryValueOutput</code>.
+ * This class is not thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class BinaryValueInput {
+    private final InputStream in;
+    private final ValueFactory valueFactory;
+    private final List<Value> values = new ArrayList<>();
+    private final int maxIds;
+
+    /**
+     * @param in           the stream from which to read
+     * @param valueFactory a factory for the values read
+     * @param maxIds       the maximum number of distinct values remembered by the writer
+     */
+    public BinaryValueInput(final InputStream in, final ValueFactory valueFactory, final int maxIds) {
+        this.in = in;
+        this.valueFactory = valueFactory;
+        this.maxIds = maxIds;
+    }
+
+    public BinaryValueInput(final InputStream in, final ValueFactory valueFactory) {
+        this(in, valueFactory, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param buffer       a buffer, e.g. a memory-mapped file, from which to read
+     * @param valueFactory a factory for the values read
+     */
+    public BinaryValueInput(final ByteBuffer buffer, final ValueFactory valueFactory) {
+        this(new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) {
+                if (!buffer.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.get(b, off, n);
+                return n;
+            }
+        }, valueFactory);
+    }
+
+    /**
+     * @return the next byte, or -1 at the end of the input
+     */
+    public int readByte() throws IOException {
+        return in.read();
+    }
+
+    public long readVarLong() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+
+        return readVarLong(b);
+    }
+
+    /**
+     * @param defaultValue the value to return if the input ends before the first byte of the integer
+     * @return the next variable-length integer, or <code>defaultValue</code> at the end of the input
+     */
+    public long readVarLong(final long defaultValue) throws IOException {
+        int b = in.read();
+        return b < 0 ? defaultValue : readVarLong(b);
+    }
+
+    private long readVarLong(final int first) throws IOException {
+        long v = 0;
+        int b = first;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (shift > 0) {
+                b = in.read();
+                if (b < 0) {
+                    throw new EOFException();
+                }
+            }
+            v |= (long) (b & 0x7F) << shift;
+            if (0 == (b & 0x80)) {
+                return v;
+            }
+        }
+
+        throw new IOException("malformed variable-length integer");
+    }
+
+    public String readString() throws IOException {
+        long length = readVarLong();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("string too long: " + length);
+        }
+
+        byte[] bytes = new byte[(int) length];
+        int offset = 0;
+        while (offset < bytes.length) {
+            int n = in.read(bytes, offset, bytes.length - offset);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            offset += n;
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the next value, which may be <code>null</code>
+     */
+    public Value readValue() throws IOException {
+        int tag = in.read();
+        Value value;
+        switch (tag) {
+            case BinaryValueOutput.NULL:
+                return null;
+            case BinaryValueOutput.REFERENCE:
+                long id = readVarLong();
+                if (id >= values.size()) {
+                    throw new IOException("undefined value reference: " + id);
+                }
+                return values.get((int) id);
+            case BinaryValueOutput.IRI_VALUE:
+                value = valueFactory.createIRI(readString());
+                break;
+            case BinaryValueOutput.BNODE_VALUE:
+                value = valueFactory.createBNode(readString());
+                break;
+            case BinaryValueOutput.STRING_LITERAL:
+                value = valueFactory.createLiteral(readString());
+                break;
+            case BinaryValueOutput.LANGUAGE_LITERAL:
+                String label = readString();
+                value = valueFactory.createLiteral(label, readString());
+                break;
+            case BinaryValueOutput.TYPED_LITERAL:
+                String lexicalForm = readString();
+                value = valueFactory.createLiteral(lexicalForm, (IRI) readValue());
+                break;
+            case -1:
+                throw new EOFException();
+            default:
+                throw new IOException("unknown value tag: " + tag);
+        }
+
+        if (values.size() < maxIds) {
+            values.add(value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,122 @@
+package net.fortytwo.sesametools;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact binary encoder for RDF values, integers and strings.
+ * Integers are written as variable-length quantities, seven bits per byte,
+ * and each distinct value is written in full only once;
+ * subsequent occurrences are written as a reference to the first.
+ * The encoding is read by <code>BinaryValueInput</code>.
+ * This class is not thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class BinaryValueOutput {
+    static final int
+            NULL = 0,
+            IRI_VALUE = 1,
+            BNODE_VALUE = 2,
+            STRING_LITERAL = 3,
+            LANGUAGE_LITERAL = 4,
+            TYPED_LITERAL = 5,
+            REFERENCE = 6;
+
+    private final OutputStream out;
+    private final Map<Value, Integer> ids = new HashMap<>();
+
+    // the maximum number of distinct values which are remembered for reference
+    private final int maxIds;
+
+    /**
+     * @param out    the stream to which to write
+     * @param maxIds the maximum number of distinct values to remember, bounding the memory used by the encoder.
+     *               Values beyond this number are always written in full.
+     */
+    public BinaryValueOutput(final OutputStream out, final int maxIds) {
+        this.out = out;
+        this.maxIds = maxIds;
+    }
+
+    public BinaryValueOutput(final OutputStream out) {
+        this(out, Integer.MAX_VALUE);
+    }
+
+    public void writeByte(final int b) throws IOException {
+        out.write(b);
+    }
+
+    /**
+     * Writes a non-negative integer as a variable-length quantity
+     */
+    public void writeVarLong(long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    public void writeString(final String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param value a value, or <code>null</code>
+     */
+    public void writeValue(final Value value) throws IOException {
+        if (null == value) {
+            out.write(NULL);
+            return;
+        }
+
+        Integer id = ids.get(value);
+        if (null != id) {
+            out.write(REFERENCE);
+            writeVarLong(id);
+            return;
+        }
+
+        if (value instanceof IRI) {
+            out.write(IRI_VALUE);
+            writeString(value.stringValue());
+        } else if (value instanceof BNode) {
+            out.write(BNODE_VALUE);
+            writeString(value.stringValue());
+        } else {
+            Literal l = (Literal) value;
+            if (l.getLanguage().isPresent()) {
+                out.write(LANGUAGE_LITERAL);
+                writeString(l.getLabel());
+                writeString(l.getLanguage().get());
+            } else if (XMLSchema.STRING.equals(l.getDatatype())) {
+                out.write(STRING_LITERAL);
+                writeString(l.getLabel());
+            } else {
+                out.write(TYPED_LITERAL);
+                writeString(l.getLabel());
+                writeValue(l.getDatatype());
+            }
+        }
+
+        if (ids.size() < maxIds) {
+            ids.put(value, ids.size());
+        }
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,90 @@
+package net.fortytwo.sesametools;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+
+/**
+ * 64-bit hash functions for RDF values, for use where the 32-bit <code>hashCode</code> of a value
+ * would collide too often, e.g. when values or statements are identified by their hashes alone.
+ * Equal values have equal hashes, and values of different kinds (IRIs, blank nodes, literals)
+ * with the same lexical form have different hashes.
+ * The hashes are not cryptographic.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public final class Hashing {
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long NULL_HASH = 0x6a09e667f3bcc908L;
+
+    private Hashing() {
+    }
+
+    /**
+     * @param value a value, or <code>null</code>
+     * @param seed  a seed, so that independent hashes of the same value may be computed
+     * @return a 64-bit hash of the value
+     */
+    public static long hash(final Value value, final long seed) {
+        if (null == value) {
+            return mix(seed ^ NULL_HASH);
+        }
+
+        long h = FNV_OFFSET ^ seed;
+        if (value instanceof IRI) {
+            h = hash(h ^ 1, value.stringValue());
+        } else if (value instanceof BNode) {
+            h = hash(h ^ 2, value.stringValue());
+        } else {
+            Literal l = (Literal) value;
+            h = hash(h ^ 3, l.getLabel());
+            h = hash(h, l.getDatatype().stringValue());
+            if (l.getLanguage().isPresent()) {
+                h = hash(h, l.getLanguage().get());
+            }
+        }
+
+        return mix(h);
+    }
+
+    /**
+     * Combines two hashes into one, in an order-dependent way
+     *
+     * @param h1 a hash
+     * @param h2 another hash
+     * @return a hash of the two hashes
+     */
+    public static long combine(final long h1, final long h2) {
+        return mix(h1 * FNV_PRIME + h2);
+    }
+
+    /**
+     * The finalizer of MurmurHash3, which spreads each bit of the input over the whole output
+     *
+     * @param h a 64-bit value
+     * @return the mixed value
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long hash(long h, final String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= FNV_PRIME;
+        }
+
+        // terminate the string, so that adjacent strings cannot be shifted into one another
+        h ^= 0xff;
+        h *= FNV_PRIME;
+        return h;
+    }
+}
@@ -0,0 +1,73 @@
+package net.fortytwo.sesametools;
+
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class BinaryValueOutputTest {
+    private static final ValueFactory valueFactory = SimpleValueFactory.getInstance();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Value[] values = {
+                valueFactory.createIRI("http://example.org/ns/thing1"),
+                valueFactory.createBNode("b1"),
+                valueFactory.createLiteral("plain"),
+                valueFactory.createLiteral("chat", "fr"),
+                valueFactory.createLiteral("42", XMLSchema.INTEGER),
+                valueFactory.createLiteral("été 🌞"),
+                valueFactory.createIRI("http://example.org/ns/thing1"),
+                valueFactory.createLiteral("43", XMLSchema.INTEGER)};
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryValueOutput out = new BinaryValueOutput(bytes);
+        for (Value v : values) {
+            out.writeValue(v);
+        }
+        out.writeValue(null);
+        out.writeVarLong(Long.MAX_VALUE);
+        out.writeVarLong(300);
+        out.flush();
+
+        BinaryValueInput in = new BinaryValueInput(new ByteArrayInputStream(bytes.toByteArray()), valueFactory);
+        for (Value v : values) {
+            assertEquals(v, in.readValue());
+        }
+        assertNull(in.readValue());
+        assertEquals(Long.MAX_VALUE, in.readVarLong());
+        assertEquals(300, in.readVarLong(-1));
+        assertEquals(-1, in.readByte());
+        assertEquals(-1, in.readVarLong(-1));
+
+        // the same encoding can be read from a buffer
+        in = new BinaryValueInput(ByteBuffer.wrap(bytes.toByteArray()), valueFactory);
+        for (Value v : values) {
+            assertEquals(v, in.readValue());
+        }
+    }
+
+    @Test
+    public void testRepeatedValuesAreReferenced() throws Exception {
+        Value v = valueFactory.createIRI("http://example.org/ns/a-rather-long-local-name");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryValueOutput out = new BinaryValueOutput(bytes);
+        out.writeValue(v);
+        int once = bytes.size();
+        out.writeValue(v);
+
+        assertEquals(once + 2, bytes.size());
+    }
+}
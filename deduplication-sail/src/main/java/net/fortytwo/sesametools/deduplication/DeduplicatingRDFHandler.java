@@ -0,0 +1,166 @@
+package net.fortytwo.sesametools.deduplication;
+
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An <code>RDFHandler</code> which passes statements on to a base handler, dropping repeated statements,
+ * e.g. to deduplicate a document as it is parsed and loaded with a <code>SailWriter</code>.
+ * <p>
+ * Statements are identified by a 64-bit hash, either of the whole quad or of the triple alone,
+ * so that a distinct statement is dropped only in the very unlikely event of a hash collision.
+ * Up to a given number of hashes are held in memory. Beyond that, the hashes in memory are either
+ * spilled to temporary files in a given directory, so that every repeated statement is dropped
+ * in bounded memory, or, if there is no directory, forgotten, in which case only statements repeated
+ * within a window of that many distinct statements are dropped.
+ * By default, up to <code>DEFAULT_CAPACITY</code> hashes are held in memory,
+ * and further hashes are spilled to the system's temporary directory.
+ * All hashes are discarded at <code>startRDF</code> and <code>endRDF</code>.
+ * This class is not thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class DeduplicatingRDFHandler implements RDFHandler {
+    /**
+     * The default maximum number of hashes held in memory, which occupy up to 32 MB
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 21;
+
+    private final RDFHandler baseHandler;
+    private final DeduplicationMode mode;
+    private final int capacity;
+    private final File directory;
+
+    private final LongHashSet recent = new LongHashSet();
+    private HashSpill spill;
+
+    private long statementsHandled = 0;
+    private long duplicatesDropped = 0;
+
+    /**
+     * Creates a handler which drops repeated quads, holding a bounded number of hashes in memory
+     * and spilling the rest to the system's temporary directory
+     *
+     * @param base the handler to which distinct statements are passed
+     */
+    public DeduplicatingRDFHandler(final RDFHandler base) {
+        this(base, DeduplicationMode.QUAD, DEFAULT_CAPACITY, new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * @param base      the handler to which distinct statements are passed
+     * @param mode      whether statements in different contexts are distinct (<code>QUAD</code>),
+     *                  duplicates of each other (<code>TRIPLE</code>),
+     *                  or whether only statements in the default graph are dropped, if their triple has been seen
+     *                  in any context (<code>DEFAULT_GRAPH</code>)
+     * @param capacity  the maximum number of hashes held in memory.
+     *                  Capacities beyond what a single table can hold, about 500 million, are reduced to that size.
+     * @param directory the directory for temporary files,
+     *                  or <code>null</code> to forget hashes beyond the capacity rather than spilling them
+     */
+    public DeduplicatingRDFHandler(final RDFHandler base,
+                                   final DeduplicationMode mode,
+                                   final int capacity,
+                                   final File directory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        this.baseHandler = base;
+        this.mode = mode;
+        this.capacity = Math.min(capacity, LongHashSet.MAX_SIZE);
+        this.directory = directory;
+    }
+
+    public void startRDF() throws RDFHandlerException {
+        statementsHandled = 0;
+        duplicatesDropped = 0;
+        discardHashes();
+        baseHandler.startRDF();
+    }
+
+    public void endRDF() throws RDFHandlerException {
+        discardHashes();
+        baseHandler.endRDF();
+    }
+
+    public void handleNamespace(final String prefix, final String uri) throws RDFHandlerException {
+        baseHandler.handleNamespace(prefix, uri);
+    }
+
+    public void handleStatement(final Statement st) throws RDFHandlerException {
+        statementsHandled++;
+
+        long hash = DeduplicationMode.QUAD == mode
+                ? StatementFilter.hashOf(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext())
+                : StatementFilter.hashOf(st.getSubject(), st.getPredicate(), st.getObject());
+
+        if (recent.contains(hash) || (null != spill && spill.contains(hash))) {
+            if (DeduplicationMode.DEFAULT_GRAPH == mode && null != st.getContext()) {
+                // statements in named graphs are never dropped
+                baseHandler.handleStatement(st);
+            } else {
+                duplicatesDropped++;
+            }
+            return;
+        }
+
+        recent.add(hash);
+        if (recent.size() >= capacity) {
+            evict();
+        }
+
+        baseHandler.handleStatement(st);
+    }
+
+    public void handleComment(final String comment) throws RDFHandlerException {
+        baseHandler.handleComment(comment);
+    }
+
+    /**
+     * @return the number of statements received since the last call to <code>startRDF</code>
+     */
+    public long getStatementsHandled() {
+        return statementsHandled;
+    }
+
+    /**
+     * @return the number of statements dropped since the last call to <code>startRDF</code>
+     */
+    public long getDuplicatesDropped() {
+        return duplicatesDropped;
+    }
+
+    private void evict() throws RDFHandlerException {
+        if (null != directory) {
+            try {
+                if (null == spill) {
+                    spill = new HashSpill(directory);
+                }
+                spill.write(recent.toSortedArray());
+            } catch (IOException e) {
+                throw new RDFHandlerException(e);
+            }
+        }
+
+        recent.clear();
+    }
+
+    private void discardHashes() throws RDFHandlerException {
+        recent.clear();
+
+        if (null != spill) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                throw new RDFHandlerException(e);
+            } finally {
+                spill = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package net.fortytwo.sesametools.deduplication;
+
+/**
+ * The sense in which a <code>DeduplicationSail</code> considers an added statement to be a duplicate
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public enum DeduplicationMode {
+    /**
+     * Only statements added to the default graph are deduplicated.
+     * Such a statement is a duplicate if the same subject, predicate and object are present in any graph,
+     * whereas statements added to named graphs are always added.
+     * This is the default, and the behavior of a <code>DeduplicationSail</code> before modes were introduced.
+     */
+    DEFAULT_GRAPH,
+
+    /**
+     * A statement is a duplicate if the same subject, predicate and object are present in any graph,
+     * including the default graph
+     */
+    TRIPLE,
+
+    /**
+     * A statement is a duplicate in a graph if the same subject, predicate and object are present in that graph.
+     * A statement added to several graphs is added to those graphs in which it is not already present.
+     */
+    QUAD
+}
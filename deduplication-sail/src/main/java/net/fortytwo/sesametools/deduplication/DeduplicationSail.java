@@ -1,23 +1,168 @@
 package net.fortytwo.sesametools.deduplication;
 
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.sail.Sail;
 import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.SailException;
 import org.eclipse.rdf4j.sail.helpers.SailWrapper;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
 /**
  * A <code>Sail</code> which avoids adding duplicate statements to a base <code>Sail</code>.
  * For use with <code>Sail</code> implementations in which duplicate statements are possible.
+ * Whether a statement is a duplicate of a statement in another graph depends on the <code>DeduplicationMode</code>.
+ * The default, <code>DEFAULT_GRAPH</code>, drops an add to the default graph of a triple which is present in any graph,
+ * and never drops adds to named graphs.
+ * <code>QUAD</code> mode also deduplicates adds to named graphs, each graph separately,
+ * while <code>TRIPLE</code> mode drops adds to any graph of a triple which is present in any graph.
+ * <p>
+ * So that new statements can be added without a lookup in the base Sail, the hashes of all statements
+ * are kept in a <code>StatementFilter</code>, which is built from the base Sail when this Sail is initialized,
+ * and which grows with the store.
+ * The filter assumes that the base Sail is modified only through this Sail;
+ * statements added to the base Sail by other means may be duplicated.
+ * The effectiveness and cost of deduplication are counted in a <code>DeduplicationStatistics</code>,
+ * which may be registered with the platform MBean server.
  *
  * @author Joshua Shinavier (http://fortytwo.net)
  */
 public class DeduplicationSail extends SailWrapper {
+    private static final long DEFAULT_EXPECTED_STATEMENTS = 1000000L;
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private long expectedStatements = DEFAULT_EXPECTED_STATEMENTS;
+    private double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+    private DeduplicationMode mode = DeduplicationMode.DEFAULT_GRAPH;
+
+    private final DeduplicationStatistics statistics = new DeduplicationStatistics();
+    private String mbeanName;
+
+    private StatementFilter filter;
+
     public DeduplicationSail(final Sail baseSail) {
         super(baseSail);
     }
 
+    @Override
+    public void initialize() throws SailException {
+        super.initialize();
+
+        SailConnection sc = getBaseSail().getConnection();
+        try {
+            // leave room for the store to double in size before the filter degrades
+            filter = new StatementFilter(Math.max(expectedStatements, 2 * sc.size()), falsePositiveRate);
+
+            try (CloseableIteration<? extends Statement, SailException> iter
+                         = sc.getStatements(null, null, null, false)) {
+                while (iter.hasNext()) {
+                    Statement st = iter.next();
+                    filter.add(DeduplicationMode.QUAD == mode
+                            ? StatementFilter.hashOf(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext())
+                            : StatementFilter.hashOf(st.getSubject(), st.getPredicate(), st.getObject()));
+                }
+            }
+        } finally {
+            sc.close();
+        }
+
+        if (null != mbeanName) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, new ObjectName(mbeanName));
+            } catch (JMException e) {
+                throw new SailException("failed to register deduplication statistics as " + mbeanName, e);
+            }
+        }
+    }
+
+    @Override
+    public void shutDown() throws SailException {
+        if (null != mbeanName) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(mbeanName));
+            } catch (JMException e) {
+                throw new SailException("failed to unregister deduplication statistics " + mbeanName, e);
+            }
+        }
+
+        super.shutDown();
+    }
+
     @Override
     public SailConnection getConnection() throws SailException {
-        return new DeduplicationSailConnection(this.getBaseSail().getConnection());
+        return new DeduplicationSailConnection(this.getBaseSail().getConnection(), mode, filter, statistics);
+    }
+
+    /**
+     * Sets the number of statements for which the duplicate filter is initially sized.
+     * The filter is made larger if the base Sail already holds more than half this number of statements,
+     * and grows as needed once this number has been exceeded, at some cost in memory and lookup time.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param expectedStatements the expected number of statements
+     */
+    public void setExpectedStatements(final long expectedStatements) {
+        this.expectedStatements = expectedStatements;
+    }
+
+    public long getExpectedStatements() {
+        return expectedStatements;
+    }
+
+    /**
+     * Sets the fraction of new statements which are looked up in the base Sail as possible duplicates,
+     * once the expected number of statements has been reached.
+     * As the filter grows beyond the expected number of statements, its rate may rise to twice this value.
+     * Each statement occupies about 1.44 * log2(1 / rate) bits of the filter, e.g. ten bits at the default of 1%.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param falsePositiveRate the false positive rate of the duplicate filter
+     */
+    public void setFalsePositiveRate(final double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * Sets the sense in which statements are duplicates. The default is <code>DeduplicationMode.DEFAULT_GRAPH</code>.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param mode the deduplication mode
+     */
+    public void setMode(final DeduplicationMode mode) {
+        this.mode = mode;
+    }
+
+    public DeduplicationMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the statistics of this Sail, which are kept from the time it is created
+     */
+    public DeduplicationStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Sets a JMX object name, e.g. <code>net.fortytwo.sesametools:type=DeduplicationSail,name=main</code>,
+     * under which the statistics of this Sail are registered with the platform MBean server
+     * for as long as the Sail is initialized.
+     * This method must be called before the Sail is initialized.
+     *
+     * @param mbeanName the object name, or <code>null</code> if the statistics are not to be registered
+     */
+    public void setMBeanName(final String mbeanName) {
+        this.mbeanName = mbeanName;
+    }
+
+    public String getMBeanName() {
+        return mbeanName;
     }
 }
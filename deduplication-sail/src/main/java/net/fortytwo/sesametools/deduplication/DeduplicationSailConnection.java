@@ -7,14 +7,49 @@ import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.UpdateContext;
 import org.eclipse.rdf4j.sail.helpers.SailConnectionWrapper;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
+ * A connection which drops duplicate statements before they reach the base Sail.
+ * The triples or quads added in the current transaction are remembered, so that repeated adds within
+ * a transaction are dropped without a lookup; they are forgotten when the transaction ends,
+ * and whenever statements are removed in the transaction, whether directly or by a SPARQL update.
+ *
  * @author Joshua Shinavier (http://fortytwo.net)
  */
 public class DeduplicationSailConnection extends SailConnectionWrapper {
+    // the maximum number of statements remembered per transaction, bounding the memory used by large transactions
+    private static final int MAX_TRANSACTION_STATEMENTS = 1000000;
+
+    private final DeduplicationMode mode;
+
+    // statements known to be present as of the current transaction, as lists of their components
+    private final Set<List<Value>> transactionStatements = new HashSet<>();
+
+    // if null, every added statement is looked up in the base Sail
+    private final StatementFilter filter;
+
+    private final DeduplicationStatistics statistics;
+
     public DeduplicationSailConnection(final SailConnection baseSailConnection) {
+        this(baseSailConnection, DeduplicationMode.DEFAULT_GRAPH, null, new DeduplicationStatistics());
+    }
+
+    DeduplicationSailConnection(final SailConnection baseSailConnection,
+                                final DeduplicationMode mode,
+                                final StatementFilter filter,
+                                final DeduplicationStatistics statistics) {
         super(baseSailConnection);
+        this.mode = mode;
+        this.filter = filter;
+        this.statistics = statistics;
     }
 
     @Override
@@ -22,16 +57,183 @@ public class DeduplicationSailConnection extends SailConnectionWrapper {
                              final IRI predicate,
                              final Value object,
                              final Resource... contexts) throws SailException {
+        add(null, subject, predicate, object, contexts);
+    }
+
+    // statements added by SPARQL updates are deduplicated in the same way as other statements
+    @Override
+    public void addStatement(final UpdateContext op,
+                             final Resource subject,
+                             final IRI predicate,
+                             final Value object,
+                             final Resource... contexts) throws SailException {
+        add(op, subject, predicate, object, contexts);
+    }
+
+    @Override
+    public void removeStatements(final Resource subject,
+                                 final IRI predicate,
+                                 final Value object,
+                                 final Resource... contexts) throws SailException {
+        transactionStatements.clear();
+        super.removeStatements(subject, predicate, object, contexts);
+    }
+
+    @Override
+    public void removeStatement(final UpdateContext op,
+                                final Resource subject,
+                                final IRI predicate,
+                                final Value object,
+                                final Resource... contexts) throws SailException {
+        transactionStatements.clear();
+        super.removeStatement(op, subject, predicate, object, contexts);
+    }
+
+    @Override
+    public void clear(final Resource... contexts) throws SailException {
+        transactionStatements.clear();
+        super.clear(contexts);
+    }
+
+    @Override
+    public void begin() throws SailException {
+        transactionStatements.clear();
+        super.begin();
+    }
+
+    @Override
+    public void commit() throws SailException {
+        transactionStatements.clear();
+        super.commit();
+    }
+
+    @Override
+    public void rollback() throws SailException {
+        transactionStatements.clear();
+        super.rollback();
+    }
+
+    // the update context is null for statements added outside of a SPARQL update
+    private void add(final UpdateContext op,
+                     final Resource subject,
+                     final IRI predicate,
+                     final Value object,
+                     final Resource... contexts) throws SailException {
+        if (DeduplicationMode.QUAD == mode) {
+            addQuads(op, subject, predicate, object, contexts);
+            return;
+        }
+
+        List<Value> triple = Arrays.asList(subject, predicate, object);
+        long hash = StatementFilter.hashOf(subject, predicate, object);
+        if (DeduplicationMode.DEFAULT_GRAPH == mode && 0 != contexts.length) {
+            // adds to named graphs are never dropped, but make later adds of the triple to the default graph duplicates
+            record(hash);
+            addToBase(op, subject, predicate, object, contexts);
+            remember(triple);
+            return;
+        }
+
+        statistics.recordAdd();
+        if (transactionStatements.contains(triple)) {
+            statistics.recordTransactionHit();
+            return;
+        }
+
+        if (!isPresent(hash, subject, predicate, object)) {
+            record(hash);
+            addToBase(op, subject, predicate, object, contexts);
+        }
+        remember(triple);
+    }
+
+    private void addQuads(final UpdateContext op,
+                          final Resource subject,
+                          final IRI predicate,
+                          final Value object,
+                          final Resource... contexts) throws SailException {
         if (0 == contexts.length) {
-            boolean includeInferred = false;
-            try (CloseableIteration<? extends Statement, SailException> iter
-                         = this.getWrappedConnection().getStatements(subject, predicate, object, includeInferred)) {
-                if (iter.hasNext()) {
-                    return;
-                }
+            statistics.recordAdd();
+            List<Value> quad = Arrays.asList(subject, predicate, object, null);
+            if (transactionStatements.contains(quad)) {
+                statistics.recordTransactionHit();
+                return;
+            }
+
+            long hash = StatementFilter.hashOf(subject, predicate, object, null);
+            if (!isPresent(hash, subject, predicate, object, (Resource) null)) {
+                record(hash);
+                addToBase(op, subject, predicate, object);
+            }
+            remember(quad);
+            return;
+        }
+
+        Set<Resource> absent = new LinkedHashSet<>();
+        for (Resource context : contexts) {
+            statistics.recordAdd();
+            List<Value> quad = Arrays.asList(subject, predicate, object, context);
+            if (transactionStatements.contains(quad)) {
+                statistics.recordTransactionHit();
+                continue;
+            }
+
+            long hash = StatementFilter.hashOf(subject, predicate, object, context);
+            if (!isPresent(hash, subject, predicate, object, context)) {
+                record(hash);
+                absent.add(context);
             }
+            remember(quad);
+        }
+
+        if (!absent.isEmpty()) {
+            addToBase(op, subject, predicate, object, absent.toArray(new Resource[absent.size()]));
+        }
+    }
+
+    private void addToBase(final UpdateContext op,
+                           final Resource subject,
+                           final IRI predicate,
+                           final Value object,
+                           final Resource... contexts) throws SailException {
+        if (null == op) {
+            super.addStatement(subject, predicate, object, contexts);
+        } else {
+            super.addStatement(op, subject, predicate, object, contexts);
+        }
+    }
+
+    // only possible duplicates are looked up in the base Sail
+    private boolean isPresent(final long hash,
+                              final Resource subject,
+                              final IRI predicate,
+                              final Value object,
+                              final Resource... contexts) throws SailException {
+        if (null != filter && !filter.mightContain(hash)) {
+            statistics.recordFilterHit();
+            return false;
+        }
+
+        boolean includeInferred = false;
+        long start = System.nanoTime();
+        boolean present;
+        try (CloseableIteration<? extends Statement, SailException> iter
+                     = this.getWrappedConnection().getStatements(subject, predicate, object, includeInferred, contexts)) {
+            present = iter.hasNext();
+        }
+        statistics.recordLookup(present, System.nanoTime() - start);
+        return present;
+    }
+
+    private void remember(final List<Value> statement) {
+        if (transactionStatements.size() < MAX_TRANSACTION_STATEMENTS) {
+            transactionStatements.add(statement);
         }
+    }
 
-        super.addStatement(subject, predicate, object, contexts);
+    private void record(final long hash) {
+        if (null != filter) {
+            filter.add(hash);
+        }
     }
 }
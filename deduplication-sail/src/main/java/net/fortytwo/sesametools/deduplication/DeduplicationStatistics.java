@@ -0,0 +1,160 @@
+package net.fortytwo.sesametools.deduplication;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the activity of a <code>DeduplicationSail</code>, for use in judging whether deduplication
+ * is worth its overhead, and in sizing its filter.
+ * Counters may be updated concurrently, and are read without locking,
+ * so a set of values read at one time may not be mutually consistent.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class DeduplicationStatistics implements DeduplicationStatisticsMBean {
+    // the last bucket also holds all longer lookups, of about nine minutes or more
+    private static final int LATENCY_BUCKETS = 31;
+
+    private final LongAdder statementsAdded = new LongAdder();
+    private final LongAdder duplicatesRejected = new LongAdder();
+    private final LongAdder transactionHits = new LongAdder();
+    private final LongAdder filterHits = new LongAdder();
+    private final LongAdder storeLookups = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+
+    private final LongAdder[] lookupLatencies = new LongAdder[LATENCY_BUCKETS];
+
+    public DeduplicationStatistics() {
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            lookupLatencies[i] = new LongAdder();
+        }
+    }
+
+    public long getStatementsAdded() {
+        return statementsAdded.sum();
+    }
+
+    public long getDuplicatesRejected() {
+        return duplicatesRejected.sum();
+    }
+
+    public double getDuplicateRate() {
+        long total = statementsAdded.sum();
+        return 0 == total ? 0 : (double) duplicatesRejected.sum() / total;
+    }
+
+    public long getTransactionHits() {
+        return transactionHits.sum();
+    }
+
+    public long getFilterHits() {
+        return filterHits.sum();
+    }
+
+    public long getStoreLookups() {
+        return storeLookups.sum();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    public long getLookupTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lookupNanos.sum());
+    }
+
+    public double getMeanLookupMicros() {
+        long lookups = storeLookups.sum();
+        return 0 == lookups ? 0 : lookupNanos.sum() / 1000.0 / lookups;
+    }
+
+    public long getMedianLookupMicros() {
+        return lookupPercentileMicros(0.5);
+    }
+
+    public long getPercentile99LookupMicros() {
+        return lookupPercentileMicros(0.99);
+    }
+
+    public long[] getLookupLatencyHistogram() {
+        long[] counts = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            counts[i] = lookupLatencies[i].sum();
+        }
+        return counts;
+    }
+
+    public void reset() {
+        for (LongAdder a : new LongAdder[]{statementsAdded, duplicatesRejected, transactionHits,
+                filterHits, storeLookups, falsePositives, lookupNanos}) {
+            a.reset();
+        }
+        for (LongAdder a : lookupLatencies) {
+            a.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "statements added: " + getStatementsAdded() + ", duplicates rejected: " + getDuplicatesRejected()
+                + ", filter hits: " + getFilterHits() + ", store lookups: " + getStoreLookups()
+                + ", false positives: " + getFalsePositives();
+    }
+
+    void recordAdd() {
+        statementsAdded.increment();
+    }
+
+    void recordTransactionHit() {
+        transactionHits.increment();
+        duplicatesRejected.increment();
+    }
+
+    void recordFilterHit() {
+        filterHits.increment();
+    }
+
+    /**
+     * @param present whether the statement was found in the base Sail
+     * @param nanos   the time taken by the lookup
+     */
+    void recordLookup(final boolean present, final long nanos) {
+        storeLookups.increment();
+        lookupNanos.add(nanos);
+        lookupLatencies[bucketOf(nanos)].increment();
+
+        if (present) {
+            duplicatesRejected.increment();
+        } else {
+            falsePositives.increment();
+        }
+    }
+
+    private static int bucketOf(final long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    // the upper bound of the bucket at which the given fraction of lookups is reached
+    private long lookupPercentileMicros(final double fraction) {
+        long[] counts = getLookupLatencyHistogram();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (0 == total) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(fraction * total);
+        long cumulative = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            cumulative += counts[i];
+            if (cumulative >= threshold) {
+                return 1L << i;
+            }
+        }
+        return 1L << (LATENCY_BUCKETS - 1);
+    }
+}
@@ -0,0 +1,80 @@
+package net.fortytwo.sesametools.deduplication;
+
+/**
+ * The management interface of the statistics of a <code>DeduplicationSail</code>.
+ * Counts are cumulative since the Sail was created or the statistics were last reset.
+ * In <code>DeduplicationMode.QUAD</code>, a statement added to several contexts is counted once per context.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public interface DeduplicationStatisticsMBean {
+
+    /**
+     * @return the number of statements added through the Sail, whether or not they were duplicates
+     */
+    long getStatementsAdded();
+
+    /**
+     * @return the number of added statements which were dropped as duplicates
+     */
+    long getDuplicatesRejected();
+
+    /**
+     * @return the fraction of added statements which were dropped as duplicates, or 0 if there have been none
+     */
+    double getDuplicateRate();
+
+    /**
+     * @return the number of added statements dropped because they had already been added in the same transaction,
+     * without a lookup in the base Sail
+     */
+    long getTransactionHits();
+
+    /**
+     * @return the number of added statements which the filter showed to be new,
+     * without a lookup in the base Sail
+     */
+    long getFilterHits();
+
+    /**
+     * @return the number of added statements which were looked up in the base Sail
+     */
+    long getStoreLookups();
+
+    /**
+     * @return the number of lookups in the base Sail which found that the statement was new after all
+     */
+    long getFalsePositives();
+
+    /**
+     * @return the total time, in milliseconds, spent on lookups in the base Sail
+     */
+    long getLookupTimeMillis();
+
+    /**
+     * @return the mean time, in microseconds, of a lookup in the base Sail, or 0 if there have been none
+     */
+    double getMeanLookupMicros();
+
+    /**
+     * @return an upper bound on the median time, in microseconds, of a lookup in the base Sail
+     */
+    long getMedianLookupMicros();
+
+    /**
+     * @return an upper bound on the 99th percentile time, in microseconds, of a lookup in the base Sail
+     */
+    long getPercentile99LookupMicros();
+
+    /**
+     * @return the number of lookups in the base Sail by time, where the count at index 0 is of lookups
+     * of under one microsecond, and the count at each index <i>i</i> &gt; 0 is of lookups of at least
+     * 2<sup><i>i</i>-1</sup> and under 2<sup><i>i</i></sup> microseconds
+     */
+    long[] getLookupLatencyHistogram();
+
+    /**
+     * Sets all counts to zero
+     */
+    void reset();
+}
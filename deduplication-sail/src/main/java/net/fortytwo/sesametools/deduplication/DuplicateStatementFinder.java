@@ -5,60 +5,243 @@ import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.sail.Sail;
 import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.SailException;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Finds the triples of a Sail which occur in more than one context, at least one of which is a named graph.
+ * All statements are read in a single sequential pass and sorted externally,
+ * so that memory use is bounded by the run size rather than by the size of the store.
+ * Given a Sail rather than a connection, the finder reads contexts and merges sorted runs in parallel.
+ *
  * @author Joshua Shinavier (http://fortytwo.net)
  */
 public class DuplicateStatementFinder {
+    /**
+     * The default maximum number of triples held in memory while sorting
+     */
+    public static final int DEFAULT_RUN_SIZE = 1000000;
+
     private static final ValueFactory valueFactory = SimpleValueFactory.getInstance();
-    
+
     private DuplicateStatementFinder() {
-        
+
     }
 
-    public static Set<Statement> findDuplicateStatements(final SailConnection sc) throws SailException {
-        boolean includeInferred = false;
+    private interface PartTask {
+        void run(int part) throws IOException;
+    }
 
+    /**
+     * @return the duplicated triples, without contexts
+     */
+    public static Set<Statement> findDuplicateStatements(final SailConnection sc) throws SailException {
         // The HashSet is safe because none of the statements we'll add have a
         // non-null named analysis context.
         Set<Statement> results = new HashSet<>();
 
-        try (CloseableIteration<? extends Resource, SailException> contexts = sc.getContextIDs()) {
-            while (contexts.hasNext()) {
-                Resource ctx = contexts.next();
-                if (null != ctx) {
-
-                    try (CloseableIteration<? extends Statement, SailException> stmts
-                                 = sc.getStatements(null, null, null, includeInferred, ctx)) {
-                        while (stmts.hasNext()) {
-                            Statement st = stmts.next();
-
-                            try (CloseableIteration<? extends Statement, SailException> dups = sc.getStatements(
-                                    st.getSubject(), st.getPredicate(), st.getObject(), includeInferred)) {
-                                int count = 0;
-                                while (dups.hasNext()) {
-                                    count++;
-                                    if (2 == count) {
-                                        Statement dup = valueFactory.createStatement(
-                                                st.getSubject(), st.getPredicate(), st.getObject());
-                                        results.add(dup);
-                                        break;
-                                    }
-
-                                    dups.next();
-                                }
+        findDuplicateStatements(sc, new AbstractRDFHandler() {
+            @Override
+            public void handleStatement(final Statement st) throws RDFHandlerException {
+                results.add(st);
+            }
+        }, null, DEFAULT_RUN_SIZE);
+
+        return results;
+    }
+
+    /**
+     * Passes each duplicated triple, without a context, to the given handler exactly once
+     *
+     * @param sc        a connection from which to read statements
+     * @param handler   a handler for the duplicated triples
+     * @param directory the directory for temporary files,
+     *                  or <code>null</code> for the default temporary-file directory
+     * @param runSize   the maximum number of triples held in memory.
+     *                  Each sorted run of this many triples is spilled to a temporary file
+     */
+    public static void findDuplicateStatements(final SailConnection sc,
+                                               final RDFHandler handler,
+                                               final File directory,
+                                               final int runSize) throws SailException, RDFHandlerException {
+        boolean includeInferred = false;
+
+        try (TripleSorter sorter = new TripleSorter(directory, runSize, valueFactory)) {
+            try (CloseableIteration<? extends Statement, SailException> stmts
+                         = sc.getStatements(null, null, null, includeInferred)) {
+                while (stmts.hasNext()) {
+                    Statement st = stmts.next();
+                    sorter.add(st.getSubject(), st.getPredicate(), st.getObject(), null != st.getContext());
+                }
+            }
+
+            handler.startRDF();
+            sorter.merge((triple, count, inNamedGraph) -> {
+                if (count > 1 && inNamedGraph) {
+                    handler.handleStatement(sorter.decode(triple));
+                }
+            });
+            handler.endRDF();
+        } catch (IOException e) {
+            throw new SailException(e);
+        }
+    }
+
+    /**
+     * Passes each duplicated triple, without a context, to the given handler exactly once,
+     * using the given number of threads.
+     * Each thread reads whole contexts through its own connection, and distributes their triples
+     * among partitions by hash, so that all copies of a triple fall into the same partition.
+     * The partitions are then merged in parallel. Calls to the handler are serialized, but are not
+     * made from the calling thread.
+     *
+     * @param sail        an initialized Sail from which to read statements
+     * @param handler     a handler for the duplicated triples
+     * @param directory   the directory for temporary files,
+     *                    or <code>null</code> for the default temporary-file directory
+     * @param runSize     the maximum number of triples held in memory by each thread
+     * @param parallelism the number of threads, which is also the number of partitions
+     */
+    public static void findDuplicateStatements(final Sail sail,
+                                               final RDFHandler handler,
+                                               final File directory,
+                                               final int runSize,
+                                               final int parallelism) throws SailException, RDFHandlerException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+
+        boolean includeInferred = false;
+
+        List<Resource> contexts = new ArrayList<>();
+        // the default graph
+        contexts.add(null);
+        SailConnection sc = sail.getConnection();
+        try {
+            try (CloseableIteration<? extends Resource, SailException> ids = sc.getContextIDs()) {
+                while (ids.hasNext()) {
+                    contexts.add(ids.next());
+                }
+            }
+        } finally {
+            sc.close();
+        }
+
+        // sorters[worker][partition]
+        TripleSorter[][] sorters = new TripleSorter[parallelism][parallelism];
+        int partitionRunSize = Math.max(1, runSize / parallelism);
+        for (TripleSorter[] row : sorters) {
+            for (int i = 0; i < parallelism; i++) {
+                row[i] = new TripleSorter(directory, partitionRunSize, valueFactory);
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            AtomicInteger nextContext = new AtomicInteger(0);
+            runAll(pool, parallelism, worker -> {
+                SailConnection c = sail.getConnection();
+                try {
+                    int i;
+                    while ((i = nextContext.getAndIncrement()) < contexts.size()) {
+                        Resource ctx = contexts.get(i);
+                        try (CloseableIteration<? extends Statement, SailException> stmts
+                                     = c.getStatements(null, null, null, includeInferred, ctx)) {
+                            while (stmts.hasNext()) {
+                                Statement st = stmts.next();
+                                long hash = StatementFilter.hashOf(st.getSubject(), st.getPredicate(), st.getObject());
+                                sorters[worker][Math.floorMod(hash, parallelism)].add(
+                                        hash, st.getSubject(), st.getPredicate(), st.getObject(), null != ctx);
                             }
                         }
                     }
+                } finally {
+                    c.close();
                 }
+            });
+
+            handler.startRDF();
+            runAll(pool, parallelism, partition -> {
+                List<TripleSorter> column = new ArrayList<>();
+                for (TripleSorter[] row : sorters) {
+                    column.add(row[partition]);
+                }
+
+                TripleSorter.merge(column, (triple, count, inNamedGraph) -> {
+                    if (count > 1 && inNamedGraph) {
+                        Statement st = column.get(0).decode(triple);
+                        synchronized (handler) {
+                            handler.handleStatement(st);
+                        }
+                    }
+                });
+            });
+            handler.endRDF();
+        } catch (IOException e) {
+            throw new SailException(e);
+        } finally {
+            pool.shutdown();
+
+            IOException closeFailure = null;
+            for (TripleSorter[] row : sorters) {
+                for (TripleSorter sorter : row) {
+                    try {
+                        sorter.close();
+                    } catch (IOException e) {
+                        closeFailure = e;
+                    }
+                }
+            }
+            if (null != closeFailure) {
+                throw new SailException(closeFailure);
             }
         }
+    }
 
-        return results;
+    // runs a task for each part on the given pool, and waits for all of them to finish
+    private static void runAll(final ForkJoinPool pool, final int parts, final PartTask task) throws IOException {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            int part = i;
+            tasks.add(pool.submit(() -> {
+                try {
+                    task.run(part);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+
+        RuntimeException failure = null;
+        for (ForkJoinTask<?> t : tasks) {
+            try {
+                t.join();
+            } catch (RuntimeException e) {
+                if (null == failure) {
+                    failure = e;
+                }
+            }
+        }
+
+        if (failure instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) failure).getCause();
+        } else if (null != failure) {
+            throw failure;
+        }
     }
 }
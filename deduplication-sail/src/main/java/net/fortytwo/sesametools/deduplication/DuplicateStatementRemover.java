@@ -0,0 +1,216 @@
+package net.fortytwo.sesametools.deduplication;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A handler for the duplicated triples found by <code>DuplicateStatementFinder</code>,
+ * which removes redundant copies of each triple from a Sail.
+ * Which copies are redundant depends on the <code>DeduplicationMode</code>, as in a <code>DeduplicationSail</code>.
+ * Only in <code>TRIPLE</code> mode are copies of a triple in different graphs redundant;
+ * the copy in the default graph is then kept if there is one, and otherwise the copy in the context
+ * which comes first in the order of their string representations.
+ * In the other modes, copies in different graphs are distinct statements, and only repeated copies of a statement
+ * in the same graph, as in stores which allow duplicates, are removed.
+ * Removals are committed in transactions of a configurable number of statements,
+ * and progress is logged once per transaction.
+ * This class is not thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class DuplicateStatementRemover extends AbstractRDFHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(DuplicateStatementRemover.class);
+
+    /**
+     * The default number of statements removed per transaction
+     */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+
+    private final SailConnection sc;
+    private final DeduplicationMode mode;
+    private final int batchSize;
+
+    private boolean active = false;
+    private int uncommitted = 0;
+
+    private long triplesHandled = 0;
+    private long statementsRemoved = 0;
+    private long batchesCommitted = 0;
+
+    /**
+     * Creates a remover which keeps the copies of a triple in different graphs,
+     * as in the default mode of a <code>DeduplicationSail</code>
+     *
+     * @param sc        a connection to the Sail from which to remove statements.
+     *                  The connection must not be in a transaction
+     * @param batchSize the number of statements to remove per transaction
+     */
+    public DuplicateStatementRemover(final SailConnection sc, final int batchSize) {
+        this(sc, DeduplicationMode.DEFAULT_GRAPH, batchSize);
+    }
+
+    /**
+     * @param sc        a connection to the Sail from which to remove statements.
+     *                  The connection must not be in a transaction
+     * @param mode      the sense in which statements are duplicates.
+     *                  Copies of a triple in different graphs are removed only in <code>TRIPLE</code> mode
+     * @param batchSize the number of statements to remove per transaction
+     */
+    public DuplicateStatementRemover(final SailConnection sc, final DeduplicationMode mode, final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+
+        this.sc = sc;
+        this.mode = mode;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Finds and removes all duplicate statements in a single operation
+     *
+     * @param sc        a connection to the Sail from which to remove statements.
+     *                  The connection must not be in a transaction
+     * @param mode      the sense in which statements are duplicates.
+     *                  Copies of a triple in different graphs are removed only in <code>TRIPLE</code> mode
+     * @param batchSize the number of statements to remove per transaction
+     * @param directory the directory for temporary files,
+     *                  or <code>null</code> for the default temporary-file directory
+     * @return the number of statements removed
+     */
+    public static long removeDuplicateStatements(final SailConnection sc,
+                                                 final DeduplicationMode mode,
+                                                 final int batchSize,
+                                                 final File directory) throws SailException {
+        DuplicateStatementRemover remover = new DuplicateStatementRemover(sc, mode, batchSize);
+        DuplicateStatementFinder.findDuplicateStatements(
+                sc, remover, directory, DuplicateStatementFinder.DEFAULT_RUN_SIZE);
+        return remover.getStatementsRemoved();
+    }
+
+    @Override
+    public void handleStatement(final Statement triple) throws RDFHandlerException {
+        boolean includeInferred = false;
+
+        try {
+            // the number of copies of the triple in each context, with null for the default graph
+            Map<Resource, Integer> copies = new LinkedHashMap<>();
+            try (CloseableIteration<? extends Statement, SailException> iter = sc.getStatements(
+                    triple.getSubject(), triple.getPredicate(), triple.getObject(), includeInferred)) {
+                while (iter.hasNext()) {
+                    copies.merge(iter.next().getContext(), 1, Integer::sum);
+                }
+            }
+
+            Resource kept = DeduplicationMode.TRIPLE == mode ? contextToKeep(copies) : null;
+            for (Map.Entry<Resource, Integer> e : copies.entrySet()) {
+                Resource ctx = e.getKey();
+                int count = e.getValue();
+                if (DeduplicationMode.TRIPLE == mode && !(null == ctx ? null == kept : ctx.equals(kept))) {
+                    remove(triple, ctx, count, false);
+                } else if (count > 1) {
+                    // all copies in a context are removed at once, so one of them is added back
+                    remove(triple, ctx, count - 1, true);
+                }
+            }
+            triplesHandled++;
+
+            if (uncommitted >= batchSize) {
+                commit();
+            }
+        } catch (SailException e) {
+            throw new RDFHandlerException(e);
+        }
+    }
+
+    /**
+     * Commits any remaining removals
+     */
+    @Override
+    public void endRDF() throws RDFHandlerException {
+        try {
+            commit();
+        } catch (SailException e) {
+            throw new RDFHandlerException(e);
+        }
+
+        LOG.info("removed " + statementsRemoved + " redundant copies of " + triplesHandled
+                + " duplicated triples in " + batchesCommitted + " transactions");
+    }
+
+    /**
+     * @return the number of duplicated triples handled so far
+     */
+    public long getTriplesHandled() {
+        return triplesHandled;
+    }
+
+    /**
+     * @return the number of statements removed so far, including any which are not yet committed
+     */
+    public long getStatementsRemoved() {
+        return statementsRemoved;
+    }
+
+    /**
+     * @return the number of transactions committed so far
+     */
+    public long getBatchesCommitted() {
+        return batchesCommitted;
+    }
+
+    private void remove(final Statement triple,
+                        final Resource ctx,
+                        final int redundant,
+                        final boolean restore) throws SailException {
+        if (!active) {
+            sc.begin();
+            active = true;
+        }
+
+        sc.removeStatements(triple.getSubject(), triple.getPredicate(), triple.getObject(), ctx);
+        if (restore) {
+            sc.addStatement(triple.getSubject(), triple.getPredicate(), triple.getObject(), ctx);
+        }
+        uncommitted += redundant;
+        statementsRemoved += redundant;
+    }
+
+    // the default graph if the triple is present in it, otherwise the first context in string order
+    private static Resource contextToKeep(final Map<Resource, Integer> copies) {
+        if (copies.containsKey(null)) {
+            return null;
+        }
+
+        Resource first = null;
+        for (Resource ctx : copies.keySet()) {
+            if (null == first || ctx.toString().compareTo(first.toString()) < 0) {
+                first = ctx;
+            }
+        }
+        return first;
+    }
+
+    private void commit() throws SailException {
+        if (active) {
+            sc.commit();
+            active = false;
+            uncommitted = 0;
+            batchesCommitted++;
+
+            LOG.info("committed batch " + batchesCommitted + ": " + statementsRemoved
+                    + " statements removed from " + triplesHandled + " duplicated triples so far");
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package net.fortytwo.sesametools.deduplication;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * A set of statement hashes spilled to disk, for use when there are too many to be held in memory.
+ * Hashes are written in sorted batches to memory-mapped temporary files, each of which is searched by
+ * binary search behind its own Bloom filter, so that most hashes which are not present are rejected
+ * without touching the file. When there are too many files, the smaller ones are merged.
+ * The size of each filter is capped, so that the filters occupy a bounded amount of memory
+ * however many hashes are spilled; beyond that, more hashes are looked up in the files themselves.
+ * This class is not thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class HashSpill implements Closeable {
+    // the number of files above which files are merged
+    private static final int MAX_FILES = 16;
+
+    // the largest number of hashes which can be mapped from a single file
+    private static final int MAX_FILE_HASHES = Integer.MAX_VALUE / 8;
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    // the largest filter of a single file, 8 MiB, so that all filters together take at most (MAX_FILES + 1) times that
+    private static final long MAX_FILTER_BITS = 1L << 26;
+
+    private static class SpillFile {
+        private final File file;
+        private final MappedByteBuffer mapped;
+        private final LongBuffer hashes;
+        // null if the file has so many hashes that a filter of the largest size would reject few lookups
+        private final StatementFilter filter;
+
+        private SpillFile(final File file,
+                          final MappedByteBuffer mapped,
+                          final LongBuffer hashes,
+                          final StatementFilter filter) {
+            this.file = file;
+            this.mapped = mapped;
+            this.hashes = hashes;
+            this.filter = filter;
+        }
+
+        private boolean contains(final long hash) {
+            if (null != filter && !filter.mightContain(hash)) {
+                return false;
+            }
+
+            int low = 0;
+            int high = hashes.limit() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long v = hashes.get(mid);
+                if (v < hash) {
+                    low = mid + 1;
+                } else if (v > hash) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final File directory;
+    private final List<SpillFile> files = new ArrayList<>();
+
+    /**
+     * @param directory the directory in which to create temporary files
+     */
+    HashSpill(final File directory) {
+        this.directory = directory;
+    }
+
+    boolean contains(final long hash) {
+        for (SpillFile f : files) {
+            if (f.contains(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param sorted distinct hashes in ascending order, none of which is already in the spill
+     */
+    void write(final long[] sorted) throws IOException {
+        int[] next = {0};
+        files.add(createFile(sorted.length, () -> sorted[next[0]++]));
+        if (files.size() > MAX_FILES) {
+            mergeSmallest();
+        }
+    }
+
+    /**
+     * @return the number of temporary files currently in use
+     */
+    int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * Unmaps and deletes all temporary files
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (SpillFile f : files) {
+            unmap(f.mapped);
+            if (!f.file.delete() && f.file.exists()) {
+                failure = new IOException("could not delete temporary file: " + f.file);
+            }
+        }
+        files.clear();
+
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    // writes the given number of hashes, supplied in ascending order
+    private SpillFile createFile(final int count, final LongSupplier sorted) throws IOException {
+        // with less than one bit per hash, a filter would pass most lookups anyway
+        StatementFilter filter = count > MAX_FILTER_BITS
+                ? null : new StatementFilter(count, FALSE_POSITIVE_RATE, MAX_FILTER_BITS);
+
+        File file = File.createTempFile("hashes", ".spill", directory);
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) count * 8);
+            LongBuffer hashes = mapped.asLongBuffer();
+            for (int i = 0; i < count; i++) {
+                long hash = sorted.getAsLong();
+                if (null != filter) {
+                    filter.add(hash);
+                }
+                hashes.put(hash);
+            }
+            hashes.flip();
+
+            // a mapping remains valid after its channel is closed
+            return new SpillFile(file, mapped, hashes, filter);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    // merges the smallest files into one, provided that the result can be mapped
+    private void mergeSmallest() throws IOException {
+        files.sort(Comparator.comparingInt(f -> f.hashes.limit()));
+
+        List<SpillFile> merged = new ArrayList<>();
+        long total = 0;
+        for (SpillFile f : files) {
+            if (total + f.hashes.limit() > MAX_FILE_HASHES) {
+                break;
+            }
+            merged.add(f);
+            total += f.hashes.limit();
+        }
+        if (merged.size() < 2) {
+            return;
+        }
+
+        List<LongBuffer> inputs = new ArrayList<>();
+        for (SpillFile f : merged) {
+            inputs.add(f.hashes.duplicate());
+        }
+        // there are few inputs, so the next hash is found by a linear scan of their heads
+        LongSupplier next = () -> {
+            LongBuffer min = null;
+            for (LongBuffer b : inputs) {
+                if (b.hasRemaining() && (null == min || b.get(b.position()) < min.get(min.position()))) {
+                    min = b;
+                }
+            }
+            return min.get();
+        };
+
+        files.add(createFile((int) total, next));
+        for (SpillFile f : merged) {
+            files.remove(f);
+            unmap(f.mapped);
+            f.file.delete();
+        }
+    }
+
+    // Releases a mapping at once, rather than when the buffer is garbage collected,
+    // so that the memory is returned and the file can be deleted on all platforms.
+    // There is no public API for this, so the cleaner of the JDK is invoked reflectively:
+    // through sun.misc.Unsafe as of Java 9, or through the buffer itself in Java 8.
+    // The buffer must not be used afterwards.
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+                return;
+            }
+
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // the mapping is released when the buffer is garbage collected
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package net.fortytwo.sesametools.deduplication;
+
+import java.util.Arrays;
+
+/**
+ * A set of <code>long</code> values in an open-addressing table, which avoids the per-entry overhead of
+ * a <code>HashSet&lt;Long&gt;</code>. Values are expected to be well-distributed hashes.
+ * This class is not thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class LongHashSet {
+    private static final int INITIAL_SLOTS = 1024;
+    // the largest power of two which is a valid array length
+    private static final int MAX_SLOTS = 1 << 30;
+
+    /**
+     * The maximum number of values in a set. Callers are expected to spill or discard values before this is reached.
+     */
+    static final int MAX_SIZE = MAX_SLOTS / 2;
+
+    private final int maxSlots;
+
+    // zero marks an empty slot, so the value zero is tracked separately
+    private long[] slots = new long[INITIAL_SLOTS];
+    private boolean containsZero = false;
+    private int size = 0;
+
+    LongHashSet() {
+        this(MAX_SLOTS);
+    }
+
+    /**
+     * @param maxSlots the maximum size of the table, a power of two, which holds at most half as many values
+     */
+    LongHashSet(final int maxSlots) {
+        if (maxSlots < INITIAL_SLOTS || maxSlots > MAX_SLOTS || 0 != (maxSlots & (maxSlots - 1))) {
+            throw new IllegalArgumentException("bad maximum number of slots: " + maxSlots);
+        }
+        this.maxSlots = maxSlots;
+    }
+
+    /**
+     * @return whether the value was added, i.e. was not already present
+     * @throws IllegalStateException if the set is full
+     */
+    boolean add(final long value) {
+        if (0 == value) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+
+        int mask = slots.length - 1;
+        for (int i = (int) value & mask; ; i = (i + 1) & mask) {
+            long v = slots[i];
+            if (value == v) {
+                return false;
+            } else if (0 == v) {
+                if (size + 1 > slots.length / 2) {
+                    grow();
+                    return add(value);
+                }
+
+                slots[i] = value;
+                size++;
+                return true;
+            }
+        }
+    }
+
+    boolean contains(final long value) {
+        if (0 == value) {
+            return containsZero;
+        }
+
+        int mask = slots.length - 1;
+        for (int i = (int) value & mask; ; i = (i + 1) & mask) {
+            long v = slots[i];
+            if (value == v) {
+                return true;
+            } else if (0 == v) {
+                return false;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the values of the set, in ascending order
+     */
+    long[] toSortedArray() {
+        long[] values = new long[size];
+        int n = 0;
+        if (containsZero) {
+            values[n++] = 0;
+        }
+        for (long v : slots) {
+            if (0 != v) {
+                values[n++] = v;
+            }
+        }
+
+        Arrays.sort(values);
+        return values;
+    }
+
+    void clear() {
+        slots = new long[INITIAL_SLOTS];
+        containsZero = false;
+        size = 0;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        if (old.length >= maxSlots) {
+            throw new IllegalStateException("set is full at " + size + " values");
+        }
+
+        slots = new long[old.length * 2];
+        int mask = slots.length - 1;
+        for (long v : old) {
+            if (0 != v) {
+                int i = (int) v & mask;
+                while (0 != slots[i]) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = v;
+            }
+        }
+    }
+}
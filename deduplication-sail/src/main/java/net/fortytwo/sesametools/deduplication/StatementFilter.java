@@ -0,0 +1,164 @@
+package net.fortytwo.sesametools.deduplication;
+
+import net.fortytwo.sesametools.Hashing;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of 64-bit statement hashes, which tells a <code>DeduplicationSail</code> which added statements
+ * are certainly new, and need not be looked up in the base Sail.
+ * A statement which the filter reports as possibly present may or may not be present.
+ * Statements cannot be removed from the filter; a removed statement merely remains a possible duplicate.
+ * <p>
+ * Unless its size is limited, the filter grows as statements are added: once the expected number of statements
+ * has been exceeded, a new layer of twice the capacity and half the false positive rate is added,
+ * so that the false positive rate of the filter as a whole stays within twice the configured rate.
+ * This class is thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class StatementFilter {
+    private static final int MAX_HASH_FUNCTIONS = 16;
+
+    private static class Layer {
+        private final AtomicLongArray words;
+        private final long bitCount;
+        private final int hashFunctions;
+        private final long capacity;
+        private final double falsePositiveRate;
+        private final AtomicLong size = new AtomicLong(0);
+
+        private Layer(final long capacity, final double falsePositiveRate, final long maxBits) {
+            long n = Math.max(1, capacity);
+            long bits = Math.min(maxBits,
+                    (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+            long wordCount = Math.min(Integer.MAX_VALUE, Math.max(1, (bits + 63) / 64));
+
+            this.words = new AtomicLongArray((int) wordCount);
+            this.bitCount = wordCount * 64;
+            this.hashFunctions = (int) Math.max(1,
+                    Math.min(MAX_HASH_FUNCTIONS, Math.round((double) bitCount / n * Math.log(2))));
+            this.capacity = n;
+            this.falsePositiveRate = falsePositiveRate;
+        }
+
+        private void add(final long hash) {
+            long h2 = Hashing.mix(hash) | 1;
+            for (int i = 0; i < hashFunctions; i++) {
+                long bit = Math.floorMod(hash + i * h2, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+
+                long current;
+                do {
+                    current = words.get(word);
+                    if (0 != (current & mask)) {
+                        break;
+                    }
+                } while (!words.compareAndSet(word, current, current | mask));
+            }
+        }
+
+        private boolean mightContain(final long hash) {
+            long h2 = Hashing.mix(hash) | 1;
+            for (int i = 0; i < hashFunctions; i++) {
+                long bit = Math.floorMod(hash + i * h2, bitCount);
+                if (0 == (words.get((int) (bit >>> 6)) & (1L << bit))) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private final boolean growable;
+    private volatile Layer[] layers;
+
+    /**
+     * Creates a filter which grows as statements are added
+     *
+     * @param expectedStatements the number of statements at which the filter has the given false positive rate
+     * @param falsePositiveRate  the fraction of new statements which are reported as possibly present,
+     *                           once the expected number of statements has been added
+     */
+    StatementFilter(final long expectedStatements, final double falsePositiveRate) {
+        this.growable = true;
+        this.layers = new Layer[]{new Layer(expectedStatements, falsePositiveRate, Long.MAX_VALUE)};
+    }
+
+    /**
+     * Creates a filter of limited size, which never grows
+     *
+     * @param expectedStatements the number of statements at which the filter has the given false positive rate
+     * @param falsePositiveRate  the fraction of new statements which are reported as possibly present,
+     *                           once the expected number of statements has been added
+     * @param maxBits            the largest size of the filter, in bits.
+     *                           If the filter is limited by this size, its false positive rate is higher.
+     */
+    StatementFilter(final long expectedStatements, final double falsePositiveRate, final long maxBits) {
+        this.growable = false;
+        this.layers = new Layer[]{new Layer(expectedStatements, falsePositiveRate, maxBits)};
+    }
+
+    /**
+     * @return a 64-bit hash of the triple, which does not depend on a context
+     */
+    static long hashOf(final Resource subject, final IRI predicate, final Value object) {
+        return Hashing.combine(Hashing.combine(Hashing.hash(subject, 0), Hashing.hash(predicate, 1)),
+                Hashing.hash(object, 2));
+    }
+
+    /**
+     * @return a 64-bit hash of the statement in the given context, which may be <code>null</code>
+     */
+    static long hashOf(final Resource subject, final IRI predicate, final Value object, final Resource context) {
+        return Hashing.combine(hashOf(subject, predicate, object), Hashing.hash(context, 3));
+    }
+
+    void add(final long hash) {
+        Layer[] current = layers;
+        Layer last = current[current.length - 1];
+        last.add(hash);
+        if (growable && last.size.incrementAndGet() == last.capacity) {
+            grow(last);
+        }
+    }
+
+    /**
+     * @return <code>false</code> if no statement with the given hash has been added,
+     * otherwise <code>true</code>
+     */
+    boolean mightContain(final long hash) {
+        for (Layer layer : layers) {
+            if (layer.mightContain(hash)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the number of layers of the filter, which is greater than one once the filter has grown
+     */
+    int getLayerCount() {
+        return layers.length;
+    }
+
+    private synchronized void grow(final Layer full) {
+        Layer[] current = layers;
+        if (current[current.length - 1] != full) {
+            return;
+        }
+
+        Layer[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = new Layer(2 * full.capacity, full.falsePositiveRate / 2, Long.MAX_VALUE);
+        layers = grown;
+    }
+}
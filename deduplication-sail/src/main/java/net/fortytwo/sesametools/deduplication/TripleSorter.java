@@ -0,0 +1,305 @@
+package net.fortytwo.sesametools.deduplication;
+
+import net.fortytwo.sesametools.BinaryValueInput;
+import net.fortytwo.sesametools.BinaryValueOutput;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An external sort of triples, which brings together all occurrences of each triple in bounded memory.
+ * Triples are encoded with <code>BinaryValueOutput</code> and buffered; whenever the buffer is full,
+ * it is sorted and spilled to a temporary file as a run.
+ * The runs and the remaining buffer are then merged, and each distinct triple is reported once
+ * with the number of times it was added.
+ * Triples are ordered by their 64-bit hash, then by their encoding, so the order is arbitrary but consistent,
+ * and the triples of several sorters, e.g. one per thread, may be merged together.
+ * This class is not thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+class TripleSorter implements Closeable {
+
+    /**
+     * A handler for the distinct triples of a merge
+     */
+    interface GroupHandler {
+        /**
+         * @param triple        the encoded triple, which may be decoded with <code>TripleSorter.decode</code>
+         * @param count         the number of times the triple was added
+         * @param inNamedGraph  whether any of the occurrences of the triple was in a named graph
+         */
+        void handle(byte[] triple, long count, boolean inNamedGraph) throws IOException;
+    }
+
+    private static class Record implements Comparable<Record> {
+        private final long hash;
+        private final byte[] triple;
+        private final boolean inNamedGraph;
+
+        private Record(final long hash, final byte[] triple, final boolean inNamedGraph) {
+            this.hash = hash;
+            this.triple = triple;
+            this.inNamedGraph = inNamedGraph;
+        }
+
+        @Override
+        public int compareTo(final Record other) {
+            int c = Long.compare(hash, other.hash);
+            if (0 != c) {
+                return c;
+            }
+
+            int n = Math.min(triple.length, other.triple.length);
+            for (int i = 0; i < n; i++) {
+                c = Integer.compare(triple[i] & 0xFF, other.triple[i] & 0xFF);
+                if (0 != c) {
+                    return c;
+                }
+            }
+            return Integer.compare(triple.length, other.triple.length);
+        }
+    }
+
+    // a sorted sequence of records, either a spilled run or the in-memory buffer
+    private static class Source {
+        private final Iterator<Record> records;
+        private Record current;
+
+        private Source(final Iterator<Record> records) {
+            this.records = records;
+        }
+
+        private boolean advance() {
+            current = records.hasNext() ? records.next() : null;
+            return null != current;
+        }
+    }
+
+    private static class Run {
+        private final File file;
+        private final long size;
+
+        private Run(final File file, final long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    private final File directory;
+    private final int runSize;
+    private final ValueFactory valueFactory;
+
+    private final List<Record> buffer = new ArrayList<>();
+    private final List<Run> runs = new ArrayList<>();
+    private final List<Closeable> openRuns = new ArrayList<>();
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    // values are always written in full, so that each encoded triple stands alone
+    private final BinaryValueOutput encoder = new BinaryValueOutput(bytes, 0);
+
+    /**
+     * @param directory    the directory in which to create temporary files
+     * @param runSize      the maximum number of triples held in memory
+     * @param valueFactory a factory for decoded values
+     */
+    TripleSorter(final File directory, final int runSize, final ValueFactory valueFactory) {
+        if (runSize < 1) {
+            throw new IllegalArgumentException("run size must be positive");
+        }
+
+        this.directory = directory;
+        this.runSize = runSize;
+        this.valueFactory = valueFactory;
+    }
+
+    void add(final Resource subject,
+             final IRI predicate,
+             final Value object,
+             final boolean inNamedGraph) throws IOException {
+        add(StatementFilter.hashOf(subject, predicate, object), subject, predicate, object, inNamedGraph);
+    }
+
+    /**
+     * @param hash the triple hash of the statement, as computed by <code>StatementFilter.hashOf</code>
+     */
+    void add(final long hash,
+             final Resource subject,
+             final IRI predicate,
+             final Value object,
+             final boolean inNamedGraph) throws IOException {
+        bytes.reset();
+        encoder.writeValue(subject);
+        encoder.writeValue(predicate);
+        encoder.writeValue(object);
+
+        buffer.add(new Record(hash, bytes.toByteArray(), inNamedGraph));
+        if (buffer.size() >= runSize) {
+            spill();
+        }
+    }
+
+    /**
+     * @return the number of runs spilled to disk so far
+     */
+    int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Merges all triples added so far, reporting each distinct triple to the handler once
+     */
+    void merge(final GroupHandler handler) throws IOException {
+        merge(Collections.singletonList(this), handler);
+    }
+
+    /**
+     * Merges all triples added so far to any of the given sorters,
+     * reporting each distinct triple to the handler once
+     */
+    static void merge(final List<TripleSorter> sorters, final GroupHandler handler) throws IOException {
+        try {
+            mergeSources(sorters, handler);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void mergeSources(final List<TripleSorter> sorters,
+                                     final GroupHandler handler) throws IOException {
+        PriorityQueue<Source> queue = new PriorityQueue<>((a, b) -> a.current.compareTo(b.current));
+        for (TripleSorter sorter : sorters) {
+            for (Run run : sorter.runs) {
+                Source source = new Source(sorter.read(run));
+                if (source.advance()) {
+                    queue.add(source);
+                }
+            }
+
+            Collections.sort(sorter.buffer);
+            Source memory = new Source(sorter.buffer.iterator());
+            if (memory.advance()) {
+                queue.add(memory);
+            }
+        }
+
+        Record first = null;
+        long count = 0;
+        boolean inNamedGraph = false;
+        while (!queue.isEmpty()) {
+            Source source = queue.poll();
+            Record r = source.current;
+            if (null != first && 0 == first.compareTo(r)) {
+                count++;
+                inNamedGraph |= r.inNamedGraph;
+            } else {
+                if (null != first) {
+                    handler.handle(first.triple, count, inNamedGraph);
+                }
+                first = r;
+                count = 1;
+                inNamedGraph = r.inNamedGraph;
+            }
+
+            if (source.advance()) {
+                queue.add(source);
+            }
+        }
+        if (null != first) {
+            handler.handle(first.triple, count, inNamedGraph);
+        }
+    }
+
+    /**
+     * @return the triple encoded by <code>add</code>, as a statement without a context
+     */
+    Statement decode(final byte[] triple) throws IOException {
+        BinaryValueInput in = new BinaryValueInput(new ByteArrayInputStream(triple), valueFactory, 0);
+        return valueFactory.createStatement((Resource) in.readValue(), (IRI) in.readValue(), in.readValue());
+    }
+
+    /**
+     * Deletes any temporary files
+     */
+    @Override
+    public void close() throws IOException {
+        for (Closeable c : openRuns) {
+            c.close();
+        }
+        openRuns.clear();
+
+        for (Run run : runs) {
+            if (!run.file.delete() && run.file.exists()) {
+                throw new IOException("could not delete temporary file: " + run.file);
+            }
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private void spill() throws IOException {
+        Collections.sort(buffer);
+
+        File file = File.createTempFile("triples", ".run", directory);
+        // the file is recorded first, so that it is deleted on close even if writing fails
+        runs.add(new Run(file, buffer.size()));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (Record r : buffer) {
+                out.writeLong(r.hash);
+                out.writeBoolean(r.inNamedGraph);
+                out.writeInt(r.triple.length);
+                out.write(r.triple);
+            }
+        }
+
+        buffer.clear();
+    }
+
+    private Iterator<Record> read(final Run run) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file)));
+        openRuns.add(in);
+
+        return new Iterator<Record>() {
+            private long remaining = run.size;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public Record next() {
+                remaining--;
+                try {
+                    long hash = in.readLong();
+                    boolean inNamedGraph = in.readBoolean();
+                    byte[] triple = new byte[in.readInt()];
+                    in.readFully(triple);
+                    return new Record(hash, triple, inNamedGraph);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+}
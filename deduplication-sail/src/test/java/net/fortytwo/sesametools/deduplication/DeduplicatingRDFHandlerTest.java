@@ -0,0 +1,167 @@
+package net.fortytwo.sesametools.deduplication;
+
+import junit.framework.TestCase;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.StatementCollector;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class DeduplicatingRDFHandlerTest extends TestCase {
+    private static final String NS = "http://example.org/test/";
+
+    private final ValueFactory valueFactory = SimpleValueFactory.getInstance();
+
+    private final IRI ctx1 = valueFactory.createIRI(NS + "ctx1");
+    private final IRI ctx2 = valueFactory.createIRI(NS + "ctx2");
+
+    public void testParse() throws Exception {
+        String doc = "@prefix ex: <" + NS + "> .\n"
+                + "ex:ctx1 { ex:a ex:p ex:b . ex:a ex:p ex:c . ex:a ex:p ex:b . }\n"
+                + "ex:ctx2 { ex:a ex:p ex:b . }\n"
+                + "ex:ctx1 { ex:a ex:p ex:c . }\n";
+
+        StatementCollector collector = new StatementCollector();
+        DeduplicatingRDFHandler handler = new DeduplicatingRDFHandler(collector);
+        RDFParser parser = Rio.createParser(RDFFormat.TRIG);
+        parser.setRDFHandler(handler);
+        parser.parse(new StringReader(doc), NS);
+
+        // Quads are distinct if their contexts differ.
+        assertEquals(3, collector.getStatements().size());
+        assertEquals(5, handler.getStatementsHandled());
+        assertEquals(2, handler.getDuplicatesDropped());
+        assertEquals(1, collector.getNamespaces().size());
+    }
+
+    public void testTripleMode() throws Exception {
+        StatementCollector collector = new StatementCollector();
+        DeduplicatingRDFHandler handler
+                = new DeduplicatingRDFHandler(collector, DeduplicationMode.TRIPLE, 100, null);
+
+        handler.startRDF();
+        handler.handleStatement(valueFactory.createStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY, ctx1));
+        handler.handleStatement(valueFactory.createStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY, ctx2));
+        handler.handleStatement(valueFactory.createStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY));
+        handler.handleStatement(valueFactory.createStatement(RDF.TYPE, RDFS.LABEL, valueFactory.createLiteral("type")));
+        handler.endRDF();
+
+        // The first copy of each triple is kept.
+        assertEquals(2, collector.getStatements().size());
+        assertEquals(ctx1, collector.getStatements().iterator().next().getContext());
+        assertEquals(2, handler.getDuplicatesDropped());
+    }
+
+    public void testSpill() throws Exception {
+        File dir = Files.createTempDirectory("dedup").toFile();
+        try {
+            List<Statement> received = new ArrayList<>();
+            StatementCollector collector = new StatementCollector(received);
+            DeduplicatingRDFHandler handler = new DeduplicatingRDFHandler(collector, DeduplicationMode.QUAD, 10, dir);
+
+            handler.startRDF();
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 500; i++) {
+                    // each round visits the statements in a different order
+                    int j = (i * (2 * round + 1)) % 500;
+                    handler.handleStatement(valueFactory.createStatement(
+                            valueFactory.createIRI(NS + "s" + j), RDF.TYPE, RDFS.RESOURCE, ctx1));
+                }
+            }
+
+            assertEquals(500, received.size());
+            assertEquals(1500, handler.getStatementsHandled());
+            assertEquals(1000, handler.getDuplicatesDropped());
+            assertTrue(dir.listFiles().length > 0);
+
+            // Temporary files are removed.
+            handler.endRDF();
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            dir.delete();
+        }
+    }
+
+    public void testWindowWithoutSpill() throws Exception {
+        List<Statement> received = new ArrayList<>();
+        DeduplicatingRDFHandler handler = new DeduplicatingRDFHandler(
+                new StatementCollector(received), DeduplicationMode.QUAD, 10, null);
+
+        handler.startRDF();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 5; i++) {
+                handler.handleStatement(valueFactory.createStatement(
+                        valueFactory.createIRI(NS + "s" + i), RDF.TYPE, RDFS.RESOURCE));
+            }
+        }
+        // Repeated within the window.
+        assertEquals(5, received.size());
+
+        for (int i = 5; i < 100; i++) {
+            handler.handleStatement(valueFactory.createStatement(
+                    valueFactory.createIRI(NS + "s" + i), RDF.TYPE, RDFS.RESOURCE));
+        }
+        handler.handleStatement(valueFactory.createStatement(
+                valueFactory.createIRI(NS + "s0"), RDF.TYPE, RDFS.RESOURCE));
+        handler.endRDF();
+
+        // Repeated long after the first occurrence, which has been forgotten.
+        assertEquals(101, received.size());
+    }
+
+    public void testLongHashSet() throws Exception {
+        LongHashSet set = new LongHashSet();
+        for (long i = -5000; i < 5000; i++) {
+            assertTrue(set.add(i * 31));
+        }
+        assertFalse(set.add(0));
+        assertFalse(set.add(-155));
+        assertTrue(set.contains(0));
+        assertFalse(set.contains(1));
+        assertEquals(10000, set.size());
+
+        long[] sorted = set.toSortedArray();
+        assertEquals(10000, sorted.length);
+        assertEquals(-5000 * 31, sorted[0]);
+        for (int i = 1; i < sorted.length; i++) {
+            assertEquals(sorted[i - 1] + 31, sorted[i]);
+        }
+
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(0));
+    }
+
+    public void testLongHashSetLimit() throws Exception {
+        LongHashSet set = new LongHashSet(2048);
+        for (long i = 1; i <= 1024; i++) {
+            assertTrue(set.add(i));
+        }
+
+        try {
+            set.add(1025);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // the set is unchanged, and still usable
+        assertEquals(1024, set.size());
+        assertFalse(set.contains(1025));
+        assertFalse(set.add(1024));
+    }
+}
@@ -0,0 +1,372 @@
+package net.fortytwo.sesametools.deduplication;
+
+import junit.framework.TestCase;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.helpers.SailConnectionWrapper;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class DeduplicationSailTest extends TestCase {
+    private static final String NS = "http://example.org/test/";
+
+    private File dataDir;
+    private MemoryStore baseSail;
+    private DeduplicationSail sail;
+    private ValueFactory valueFactory;
+
+    public void setUp() throws Exception {
+        // the base store is persistent, so that it can be populated, shut down, and wrapped
+        dataDir = Files.createTempDirectory("dedup").toFile();
+        baseSail = new MemoryStore(dataDir);
+        baseSail.setPersist(true);
+        baseSail.initialize();
+        valueFactory = baseSail.getValueFactory();
+
+        // a statement which is already in the store when the deduplicating Sail is initialized
+        SailConnection sc = baseSail.getConnection();
+        sc.begin();
+        sc.addStatement(RDF.NIL, RDF.TYPE, RDF.LIST, valueFactory.createIRI(NS + "ctx1"));
+        sc.commit();
+        sc.close();
+        baseSail.shutDown();
+
+        // most of these tests concern duplicates across graphs, which only triple mode rejects
+        sail = new DeduplicationSail(baseSail);
+        sail.setExpectedStatements(1000);
+        sail.setMode(DeduplicationMode.TRIPLE);
+        sail.initialize();
+    }
+
+    public void tearDown() throws Exception {
+        sail.shutDown();
+        for (File f : dataDir.listFiles()) {
+            f.delete();
+        }
+        dataDir.delete();
+    }
+
+    public void testDuplicatesAreNotAdded() throws Exception {
+        IRI ctx1 = valueFactory.createIRI(NS + "ctx1");
+
+        SailConnection sc = sail.getConnection();
+        assertEquals(1, count(sc, RDF.NIL));
+        sc.begin();
+
+        // Duplicates of a statement which was present at initialization.
+        sc.addStatement(RDF.NIL, RDF.TYPE, RDF.LIST);
+
+        // Duplicates of a statement added through this Sail.
+        sc.addStatement(RDF.PROPERTY, RDF.TYPE, RDFS.CLASS, ctx1);
+        sc.addStatement(RDF.PROPERTY, RDF.TYPE, RDFS.CLASS);
+        sc.addStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY);
+        sc.addStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY);
+        sc.commit();
+
+        assertEquals(1, count(sc, RDF.NIL));
+        assertEquals(1, count(sc, RDF.PROPERTY));
+        assertEquals(1, count(sc, RDF.TYPE));
+        sc.close();
+    }
+
+    public void testTripleModeAppliesToNamedGraphs() throws Exception {
+        IRI ctx1 = valueFactory.createIRI(NS + "ctx1");
+        IRI ctx2 = valueFactory.createIRI(NS + "ctx2");
+
+        SailConnection sc = sail.getConnection();
+        sc.begin();
+        sc.addStatement(RDF.NIL, RDF.TYPE, RDF.LIST, ctx2);
+        sc.addStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY, ctx1);
+        sc.addStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY, ctx1, ctx2);
+        sc.commit();
+
+        assertEquals(1, count(sc, RDF.NIL));
+        assertEquals(1, count(sc, RDF.TYPE));
+        sc.close();
+    }
+
+    public void testQuadMode() throws Exception {
+        IRI ctx1 = valueFactory.createIRI(NS + "ctx1");
+        IRI ctx2 = valueFactory.createIRI(NS + "ctx2");
+
+        sail.shutDown();
+        sail = new DeduplicationSail(baseSail);
+        sail.setMode(DeduplicationMode.QUAD);
+        sail.initialize();
+
+        SailConnection sc = sail.getConnection();
+        sc.begin();
+        // already present in ctx1
+        sc.addStatement(RDF.NIL, RDF.TYPE, RDF.LIST, ctx1);
+        // new in the default graph
+        sc.addStatement(RDF.NIL, RDF.TYPE, RDF.LIST);
+        sc.addStatement(RDF.NIL, RDF.TYPE, RDF.LIST);
+        // new in ctx2 only
+        sc.addStatement(RDF.NIL, RDF.TYPE, RDF.LIST, ctx1, ctx2, ctx2);
+        sc.commit();
+
+        assertEquals(3, count(sc, RDF.NIL));
+        sc.close();
+    }
+
+    public void testDefaultModeKeepsNamedGraphs() throws Exception {
+        IRI ctx2 = valueFactory.createIRI(NS + "ctx2");
+
+        sail.shutDown();
+        sail = new DeduplicationSail(baseSail);
+        assertEquals(DeduplicationMode.DEFAULT_GRAPH, sail.getMode());
+        sail.initialize();
+
+        SailConnection sc = sail.getConnection();
+        sc.begin();
+        // adds to named graphs are never dropped
+        sc.addStatement(RDF.NIL, RDF.TYPE, RDF.LIST, ctx2);
+        // present in ctx1, so a duplicate in the default graph
+        sc.addStatement(RDF.NIL, RDF.TYPE, RDF.LIST);
+        sc.addStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY, ctx2);
+        sc.addStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY);
+        sc.commit();
+
+        assertEquals(2, count(sc, RDF.NIL));
+        assertEquals(1, count(sc, RDF.TYPE));
+        assertEquals(2, sail.getStatistics().getStatementsAdded());
+        assertEquals(2, sail.getStatistics().getDuplicatesRejected());
+        sc.close();
+    }
+
+    public void testRepeatedAddsInTransaction() throws Exception {
+        final AtomicInteger lookups = new AtomicInteger(0);
+        SailConnection base = new SailConnectionWrapper(baseSail.getConnection()) {
+            @Override
+            public CloseableIteration<? extends Statement, SailException> getStatements(
+                    final Resource subj, final IRI pred, final Value obj, final boolean includeInferred,
+                    final Resource... contexts) throws SailException {
+                lookups.incrementAndGet();
+                return super.getStatements(subj, pred, obj, includeInferred, contexts);
+            }
+        };
+
+        // without a filter, each statement is looked up once per transaction
+        DeduplicationStatistics statistics = new DeduplicationStatistics();
+        SailConnection sc = new DeduplicationSailConnection(base, DeduplicationMode.TRIPLE, null, statistics);
+        sc.begin();
+        for (int i = 0; i < 100; i++) {
+            sc.addStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY);
+        }
+        assertEquals(1, lookups.get());
+        assertEquals(100, statistics.getStatementsAdded());
+        assertEquals(99, statistics.getTransactionHits());
+        assertEquals(1, statistics.getFalsePositives());
+
+        // a removal in the transaction makes the statement new again
+        sc.removeStatements(RDF.TYPE, RDF.TYPE, RDF.PROPERTY);
+        sc.addStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY);
+        sc.commit();
+        assertEquals(2, lookups.get());
+        assertEquals(1, count(sc, RDF.TYPE));
+
+        // the statements of a transaction are forgotten once it ends (the count above was also a lookup)
+        sc.begin();
+        sc.addStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY);
+        sc.commit();
+        assertEquals(4, lookups.get());
+        sc.close();
+    }
+
+    public void testSparqlUpdate() throws Exception {
+        DeduplicationSail other = new DeduplicationSail(new MemoryStore());
+        Repository repo = new SailRepository(other);
+        repo.initialize();
+        try {
+            RepositoryConnection rc = repo.getConnection();
+            try {
+                rc.prepareUpdate(QueryLanguage.SPARQL, "INSERT DATA { <" + NS + "s> a <" + NS + "C> }").execute();
+                rc.add(valueFactory.createIRI(NS + "s"), RDF.TYPE, valueFactory.createIRI(NS + "C"));
+            } finally {
+                rc.close();
+            }
+
+            // the statement inserted by the update is known to be present when it is added again
+            assertEquals(2, other.getStatistics().getStatementsAdded());
+            assertEquals(1, other.getStatistics().getDuplicatesRejected());
+        } finally {
+            repo.shutDown();
+        }
+    }
+
+    public void testSparqlDeleteInTransaction() throws Exception {
+        DeduplicationSail other = new DeduplicationSail(new MemoryStore());
+        Repository repo = new SailRepository(other);
+        repo.initialize();
+        try {
+            IRI subject = valueFactory.createIRI(NS + "s");
+            IRI type = valueFactory.createIRI(NS + "C");
+            RepositoryConnection rc = repo.getConnection();
+            try {
+                rc.begin();
+                rc.add(subject, RDF.TYPE, type);
+                rc.prepareUpdate(QueryLanguage.SPARQL, "DELETE DATA { <" + subject + "> a <" + type + "> }").execute();
+                // no longer a duplicate once deleted
+                rc.add(subject, RDF.TYPE, type);
+                rc.commit();
+
+                assertEquals(1, rc.size());
+            } finally {
+                rc.close();
+            }
+        } finally {
+            repo.shutDown();
+        }
+    }
+
+    public void testDistinctStatementsAreAdded() throws Exception {
+        SailConnection sc = sail.getConnection();
+        sc.begin();
+        for (int i = 0; i < 5000; i++) {
+            sc.addStatement(valueFactory.createIRI(NS + "s" + i), RDF.TYPE, RDFS.RESOURCE);
+        }
+        sc.commit();
+
+        assertEquals(5001, sc.size());
+        sc.close();
+    }
+
+    public void testStatistics() throws Exception {
+        DeduplicationStatistics statistics = sail.getStatistics();
+        SailConnection sc = sail.getConnection();
+        sc.begin();
+
+        // A duplicate of a statement which was present at initialization.
+        sc.addStatement(RDF.NIL, RDF.TYPE, RDF.LIST);
+
+        for (int i = 0; i < 10; i++) {
+            sc.addStatement(valueFactory.createIRI(NS + "s" + i), RDF.TYPE, RDFS.RESOURCE);
+        }
+
+        // A duplicate within the transaction.
+        sc.addStatement(valueFactory.createIRI(NS + "s0"), RDF.TYPE, RDFS.RESOURCE);
+        sc.commit();
+        sc.close();
+
+        assertEquals(12, statistics.getStatementsAdded());
+        assertEquals(2, statistics.getDuplicatesRejected());
+        assertEquals(1, statistics.getTransactionHits());
+        assertEquals(2.0 / 12, statistics.getDuplicateRate(), 1e-9);
+
+        // each new statement either passes the filter or is a false positive
+        assertEquals(10, statistics.getFilterHits() + statistics.getFalsePositives());
+        assertEquals(1 + statistics.getFalsePositives(), statistics.getStoreLookups());
+
+        long lookups = 0;
+        for (long c : statistics.getLookupLatencyHistogram()) {
+            lookups += c;
+        }
+        assertEquals(statistics.getStoreLookups(), lookups);
+        assertTrue(statistics.getMedianLookupMicros() >= 1);
+        assertTrue(statistics.getPercentile99LookupMicros() >= statistics.getMedianLookupMicros());
+
+        statistics.reset();
+        assertEquals(0, statistics.getStatementsAdded());
+        assertEquals(0, statistics.getMedianLookupMicros());
+    }
+
+    public void testMBean() throws Exception {
+        String name = "net.fortytwo.sesametools:type=DeduplicationSail,name=test";
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        DeduplicationSail other = new DeduplicationSail(new MemoryStore());
+        other.setMBeanName(name);
+        other.initialize();
+        try {
+            SailConnection sc = other.getConnection();
+            sc.begin();
+            sc.addStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY);
+            sc.addStatement(RDF.TYPE, RDF.TYPE, RDF.PROPERTY);
+            sc.commit();
+            sc.close();
+
+            assertEquals(2L, server.getAttribute(new ObjectName(name), "StatementsAdded"));
+            assertEquals(1L, server.getAttribute(new ObjectName(name), "DuplicatesRejected"));
+        } finally {
+            other.shutDown();
+        }
+
+        assertFalse(server.isRegistered(new ObjectName(name)));
+    }
+
+    public void testFilter() throws Exception {
+        StatementFilter filter = new StatementFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(StatementFilter.hashOf(valueFactory.createIRI(NS + i), RDF.TYPE, RDFS.CLASS));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(StatementFilter.hashOf(valueFactory.createIRI(NS + i), RDF.TYPE, RDFS.CLASS)));
+            if (filter.mightContain(StatementFilter.hashOf(valueFactory.createIRI(NS + i), RDF.TYPE, RDF.PROPERTY))) {
+                falsePositives++;
+            }
+        }
+
+        assertTrue(falsePositives < 50);
+    }
+
+    public void testFilterGrows() throws Exception {
+        StatementFilter filter = new StatementFilter(100, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(StatementFilter.hashOf(valueFactory.createIRI(NS + i), RDF.TYPE, RDFS.CLASS));
+        }
+        assertTrue(filter.getLayerCount() > 1);
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(StatementFilter.hashOf(valueFactory.createIRI(NS + i), RDF.TYPE, RDFS.CLASS)));
+            if (filter.mightContain(StatementFilter.hashOf(valueFactory.createIRI(NS + i), RDF.TYPE, RDF.PROPERTY))) {
+                falsePositives++;
+            }
+        }
+
+        // a filter of fixed size would report nearly every new statement as a possible duplicate
+        assertTrue(falsePositives < 300);
+
+        // a filter of limited size does not grow
+        StatementFilter limited = new StatementFilter(100, 0.01, 1L << 10);
+        for (int i = 0; i < 1000; i++) {
+            limited.add(StatementFilter.hashOf(valueFactory.createIRI(NS + i), RDF.TYPE, RDFS.CLASS));
+        }
+        assertEquals(1, limited.getLayerCount());
+    }
+
+    private int count(final SailConnection sc, final IRI subject) throws SailException {
+        int count = 0;
+        try (CloseableIteration<? extends Statement, SailException> iter
+                     = sc.getStatements(subject, null, null, false)) {
+            while (iter.hasNext()) {
+                iter.next();
+                count++;
+            }
+        }
+        return count;
+    }
+}
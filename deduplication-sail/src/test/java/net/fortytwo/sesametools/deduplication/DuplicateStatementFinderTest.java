@@ -6,10 +6,17 @@ import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
 import org.eclipse.rdf4j.sail.Sail;
 import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.memory.MemoryStore;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -56,4 +63,118 @@ public class DuplicateStatementFinderTest extends TestCase {
         sc.rollback();
         sc.close();
     }
+
+    public void testSpilledRuns() throws Exception {
+        SailConnection sc = sail.getConnection();
+        sc.begin();
+
+        IRI ctx1 = valueFactory.createIRI(NS + "ctx1");
+        IRI ctx2 = valueFactory.createIRI(NS + "ctx2");
+
+        Set<Statement> expected = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            IRI subject = valueFactory.createIRI(NS + "s" + i);
+            sc.addStatement(subject, RDF.TYPE, RDFS.RESOURCE, ctx1);
+            if (0 == i % 7) {
+                sc.addStatement(subject, RDF.TYPE, RDFS.RESOURCE, ctx2);
+                expected.add(valueFactory.createStatement(subject, RDF.TYPE, RDFS.RESOURCE));
+            }
+
+            // Not duplicates: the default graph only.
+            sc.addStatement(subject, RDFS.LABEL, valueFactory.createLiteral("s" + i));
+        }
+
+        File dir = Files.createTempDirectory("duplicates").toFile();
+        try {
+            List<Statement> dups = new ArrayList<>();
+            DuplicateStatementFinder.findDuplicateStatements(sc, new AbstractRDFHandler() {
+                @Override
+                public void handleStatement(final Statement st) throws RDFHandlerException {
+                    assertNull(st.getContext());
+                    dups.add(st);
+                }
+            }, dir, 8);
+
+            // Each duplicate is reported once.
+            assertEquals(expected.size(), dups.size());
+            assertEquals(expected, new HashSet<>(dups));
+
+            // Temporary files are removed.
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            dir.delete();
+        }
+
+        assertEquals(expected, DuplicateStatementFinder.findDuplicateStatements(sc));
+
+        sc.rollback();
+        sc.close();
+    }
+
+    public void testParallel() throws Exception {
+        SailConnection sc = sail.getConnection();
+        sc.begin();
+
+        Set<Statement> expected = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            IRI subject = valueFactory.createIRI(NS + "s" + i);
+            for (int j = 0; j <= i % 4; j++) {
+                sc.addStatement(subject, RDF.TYPE, RDFS.RESOURCE, valueFactory.createIRI(NS + "ctx" + j));
+            }
+            if (i % 4 > 0) {
+                expected.add(valueFactory.createStatement(subject, RDF.TYPE, RDFS.RESOURCE));
+            }
+
+            if (0 == i % 5) {
+                // Duplicate: null and non-null context.
+                sc.addStatement(subject, RDFS.LABEL, valueFactory.createLiteral("s" + i), subject);
+                sc.addStatement(subject, RDFS.LABEL, valueFactory.createLiteral("s" + i));
+                expected.add(valueFactory.createStatement(subject, RDFS.LABEL, valueFactory.createLiteral("s" + i)));
+            }
+        }
+        sc.commit();
+        sc.close();
+
+        List<Statement> dups = new ArrayList<>();
+        DuplicateStatementFinder.findDuplicateStatements(sail, new AbstractRDFHandler() {
+            @Override
+            public void handleStatement(final Statement st) throws RDFHandlerException {
+                dups.add(st);
+            }
+        }, null, 12, 3);
+
+        // Each duplicate is reported once.
+        assertEquals(expected.size(), dups.size());
+        assertEquals(expected, new HashSet<>(dups));
+
+        sc = sail.getConnection();
+        try {
+            assertEquals(expected, DuplicateStatementFinder.findDuplicateStatements(sc));
+        } finally {
+            sc.close();
+        }
+    }
+
+    public void testSorter() throws Exception {
+        IRI ctx = valueFactory.createIRI(NS + "ctx");
+        try (TripleSorter sorter = new TripleSorter(null, 2, valueFactory)) {
+            sorter.add(RDF.TYPE, RDF.TYPE, RDF.PROPERTY, true);
+            sorter.add(ctx, RDFS.LABEL, valueFactory.createLiteral("ctx", "en"), false);
+            sorter.add(RDF.TYPE, RDF.TYPE, RDF.PROPERTY, false);
+            sorter.add(ctx, RDFS.LABEL, valueFactory.createLiteral("ctx", "en"), false);
+            sorter.add(ctx, RDFS.LABEL, valueFactory.createLiteral("ctx"), false);
+            assertEquals(2, sorter.getRunCount());
+
+            List<String> groups = new ArrayList<>();
+            sorter.merge((triple, count, inNamedGraph) -> {
+                Statement st = sorter.decode(triple);
+                groups.add(st.getObject().stringValue() + " " + count + " " + inNamedGraph);
+            });
+
+            assertEquals(3, groups.size());
+            assertTrue(groups.contains(RDF.PROPERTY.stringValue() + " 2 true"));
+            assertTrue(groups.contains("ctx 2 false"));
+            assertTrue(groups.contains("ctx 1 false"));
+        }
+    }
 }
@@ -0,0 +1,133 @@
+package net.fortytwo.sesametools.deduplication;
+
+import junit.framework.TestCase;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.sail.Sail;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+
+/**
+ * @author Joshua Shinavier (http://fortytwo.net)
+ */
+public class DuplicateStatementRemoverTest extends TestCase {
+    private static final String NS = "http://example.org/test/";
+
+    private Sail sail;
+    private ValueFactory valueFactory;
+
+    public void setUp() throws Exception {
+        sail = new MemoryStore();
+        sail.initialize();
+        valueFactory = sail.getValueFactory();
+    }
+
+    public void tearDown() throws Exception {
+        sail.shutDown();
+    }
+
+    public void testRemoveDuplicates() throws Exception {
+        IRI ctx1 = valueFactory.createIRI(NS + "ctx1");
+        IRI ctx2 = valueFactory.createIRI(NS + "ctx2");
+        IRI ctx3 = valueFactory.createIRI(NS + "ctx3");
+
+        SailConnection sc = sail.getConnection();
+        try {
+            sc.begin();
+            for (int i = 0; i < 10; i++) {
+                IRI subject = valueFactory.createIRI(NS + "s" + i);
+
+                // Not a duplicate.
+                sc.addStatement(subject, RDF.TYPE, RDFS.RESOURCE, ctx1);
+
+                // Duplicate: three non-null contexts.
+                sc.addStatement(subject, RDFS.SEEALSO, RDF.NIL, ctx1);
+                sc.addStatement(subject, RDFS.SEEALSO, RDF.NIL, ctx2);
+                sc.addStatement(subject, RDFS.SEEALSO, RDF.NIL, ctx3);
+
+                // Duplicate: null and non-null context.
+                sc.addStatement(subject, RDFS.LABEL, valueFactory.createLiteral("s" + i), ctx1);
+                sc.addStatement(subject, RDFS.LABEL, valueFactory.createLiteral("s" + i));
+            }
+            sc.commit();
+            assertEquals(60, sc.size());
+
+            // copies in other graphs are distinct statements in the default mode
+            assertEquals(0, DuplicateStatementRemover.removeDuplicateStatements(
+                    sc, DeduplicationMode.DEFAULT_GRAPH, 100, null));
+            assertEquals(60, sc.size());
+
+            DuplicateStatementRemover remover = new DuplicateStatementRemover(sc, DeduplicationMode.TRIPLE, 1);
+            DuplicateStatementFinder.findDuplicateStatements(sc, remover, null, 16);
+
+            assertEquals(20, remover.getTriplesHandled());
+            assertEquals(30, remover.getStatementsRemoved());
+            // one transaction per duplicated triple
+            assertEquals(20, remover.getBatchesCommitted());
+
+            // One copy of each triple remains.
+            assertEquals(30, sc.size());
+            for (int i = 0; i < 10; i++) {
+                IRI subject = valueFactory.createIRI(NS + "s" + i);
+                assertEquals(1, count(sc, subject, RDFS.SEEALSO));
+                assertEquals(1, count(sc, subject, RDFS.LABEL));
+                assertEquals(1, count(sc, subject, RDF.TYPE));
+
+                // the copy in the default graph is kept, or else the copy in the first context
+                assertTrue(sc.hasStatement(subject, RDFS.LABEL, null, false, (Resource) null));
+                assertTrue(sc.hasStatement(subject, RDFS.SEEALSO, RDF.NIL, false, ctx1));
+            }
+
+            assertEquals(0, DuplicateStatementFinder.findDuplicateStatements(sc).size());
+            assertEquals(0, DuplicateStatementRemover.removeDuplicateStatements(
+                    sc, DeduplicationMode.TRIPLE, 100, null));
+        } finally {
+            sc.close();
+        }
+    }
+
+    public void testBatches() throws Exception {
+        IRI ctx1 = valueFactory.createIRI(NS + "ctx1");
+        IRI ctx2 = valueFactory.createIRI(NS + "ctx2");
+
+        SailConnection sc = sail.getConnection();
+        try {
+            sc.begin();
+            for (int i = 0; i < 25; i++) {
+                IRI subject = valueFactory.createIRI(NS + "s" + i);
+                sc.addStatement(subject, RDF.TYPE, RDFS.RESOURCE, ctx2);
+                sc.addStatement(subject, RDF.TYPE, RDFS.RESOURCE, ctx1);
+            }
+            sc.commit();
+
+            DuplicateStatementRemover remover = new DuplicateStatementRemover(sc, DeduplicationMode.TRIPLE, 10);
+            DuplicateStatementFinder.findDuplicateStatements(sc, remover, null, 16);
+
+            assertEquals(25, remover.getStatementsRemoved());
+            // two full batches, and the remainder committed at the end
+            assertEquals(3, remover.getBatchesCommitted());
+            assertEquals(25, sc.size());
+            assertEquals(25, sc.size(ctx1));
+        } finally {
+            sc.close();
+        }
+    }
+
+    private int count(final SailConnection sc, final IRI subject, final IRI predicate) throws Exception {
+        int count = 0;
+        try (CloseableIteration<? extends Statement, SailException> iter
+                     = sc.getStatements(subject, predicate, null, false)) {
+            while (iter.hasNext()) {
+                iter.next();
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,230 @@
+package net.fortytwo.sesametools.replay;
+
+import org.eclipse.rdf4j.sail.SailException;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A handler which passes calls to a base handler on a dedicated writer thread, so that recording does not put
+ * I/O on the path of the recorded operations.
+ * Calls are placed in a bounded, lock-free ring buffer, from which the writer thread takes them in batches,
+ * flushing the base handler whenever the buffer has been drained.
+ * When the buffer is full, calls are handled according to an <code>OverflowPolicy</code>.
+ * Any calls dropped by the policy are missing from the log, which can then not be played back faithfully.
+ * This class is thread-safe, although calls made concurrently with <code>close</code> may be lost.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net).
+ */
+public class AsyncHandler<T> implements Handler<T, SailException> {
+
+    /**
+     * What to do with calls which arrive while the buffer is full or, for <code>SAMPLE</code>, nearly full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for space in the buffer, so that no calls are lost
+         */
+        BLOCK,
+        /**
+         * Drop calls which arrive while the buffer is full
+         */
+        DROP,
+        /**
+         * Keep only one in a given number of the calls which arrive while the buffer is more than half full,
+         * and drop calls which arrive while it is full
+         */
+        SAMPLE
+    }
+
+    /**
+     * The default capacity of the buffer
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * The default number of calls under pressure of which one is kept by the <code>SAMPLE</code> policy
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+    // the maximum number of calls handled between checks for other work
+    private static final int BATCH_SIZE = 1024;
+
+    private static final long MIN_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Handler<T, ? extends Exception> baseHandler;
+    private final Flushable flushable;
+    private final OverflowPolicy policy;
+    private final int sampleInterval;
+
+    private final RingBuffer<T> buffer;
+    private final Thread writer;
+
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong pressured = new AtomicLong(0);
+    // the number of calls which have been handled and flushed by the writer thread
+    private volatile long flushed = 0;
+
+    private volatile boolean closed = false;
+    private volatile Exception failure;
+
+    /**
+     * @param baseHandler    the handler to which calls are passed on the writer thread
+     * @param flushable      an object, e.g. the stream written to by the base handler, which is flushed
+     *                       whenever the buffer has been drained, or <code>null</code> if there is nothing to flush
+     * @param capacity       the capacity of the buffer, which is rounded up to a power of two
+     * @param policy         what to do with calls when the buffer is full
+     * @param sampleInterval for the <code>SAMPLE</code> policy, the number of calls under pressure
+     *                       of which one is kept
+     */
+    public AsyncHandler(final Handler<T, ? extends Exception> baseHandler,
+                        final Flushable flushable,
+                        final int capacity,
+                        final OverflowPolicy policy,
+                        final int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("sample interval must be positive");
+        }
+
+        this.baseHandler = baseHandler;
+        this.flushable = flushable;
+        this.policy = policy;
+        this.sampleInterval = sampleInterval;
+
+        buffer = new RingBuffer<>(capacity);
+        writer = new Thread(this::write, "replay-sail-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public AsyncHandler(final Handler<T, ? extends Exception> baseHandler, final Flushable flushable) {
+        this(baseHandler, flushable, DEFAULT_CAPACITY, OverflowPolicy.BLOCK, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    public void handle(final T call) throws SailException {
+        checkFailure();
+        if (closed) {
+            throw new SailException("handler is closed");
+        }
+
+        switch (policy) {
+            case BLOCK:
+                while (!buffer.offer(call)) {
+                    checkFailure();
+                    LockSupport.parkNanos(MIN_IDLE_NANOS);
+                }
+                break;
+            case DROP:
+                if (!buffer.offer(call)) {
+                    dropped.incrementAndGet();
+                }
+                break;
+            case SAMPLE:
+                if ((buffer.size() > buffer.capacity() / 2
+                        && 0 != pressured.getAndIncrement() % sampleInterval)
+                        || !buffer.offer(call)) {
+                    dropped.incrementAndGet();
+                }
+                break;
+            default:
+                throw new IllegalStateException("unknown policy: " + policy);
+        }
+    }
+
+    /**
+     * Waits until all calls accepted so far have been handled and flushed
+     */
+    public void flush() throws SailException {
+        long target = buffer.added();
+        while (flushed < target) {
+            checkFailure();
+            if (!writer.isAlive()) {
+                throw new SailException("writer thread has stopped");
+            }
+            LockSupport.parkNanos(MIN_IDLE_NANOS);
+        }
+    }
+
+    /**
+     * Stops accepting calls, and waits until all calls accepted so far have been handled and flushed
+     */
+    public void close() throws SailException {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SailException(e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * @return the number of calls which have been dropped according to the overflow policy
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of calls which have been passed to the base handler
+     */
+    public long getHandled() {
+        return buffer.removed();
+    }
+
+    private void checkFailure() throws SailException {
+        Exception e = failure;
+        if (null != e) {
+            throw new SailException("recording failed", e);
+        }
+    }
+
+    private void write() {
+        long idleNanos = MIN_IDLE_NANOS;
+        boolean dirty = false;
+
+        try {
+            while (true) {
+                int count = 0;
+                T call;
+                while (count < BATCH_SIZE && null != (call = buffer.poll())) {
+                    baseHandler.handle(call);
+                    count++;
+                }
+
+                if (count > 0) {
+                    dirty = true;
+                    idleNanos = MIN_IDLE_NANOS;
+                } else {
+                    // the buffer has been drained
+                    if (dirty) {
+                        long handled = buffer.removed();
+                        flushBase();
+                        flushed = handled;
+                        dirty = false;
+                    }
+
+                    if (closed && buffer.added() == buffer.removed()) {
+                        return;
+                    }
+
+                    LockSupport.parkNanos(idleNanos);
+                    idleNanos = Math.min(MAX_IDLE_NANOS, idleNanos * 2);
+                }
+            }
+        } catch (Exception e) {
+            failure = e;
+        }
+    }
+
+    private void flushBase() throws IOException {
+        if (null != flushable) {
+            flushable.flush();
+        }
+    }
+}
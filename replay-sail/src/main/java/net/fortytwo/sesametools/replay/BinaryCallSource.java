@@ -0,0 +1,49 @@
+package net.fortytwo.sesametools.replay;
+
+import net.fortytwo.sesametools.BinaryValueInput;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.sail.SailException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A source of calls read from a log written by <code>BinaryCallWriter</code>, for use with <code>PlaybackSail</code>.
+ * The stream is closed once all calls have been read.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net).
+ */
+public class BinaryCallSource implements Source<SailConnectionCall, SailException> {
+    private final InputStream in;
+
+    public BinaryCallSource(final InputStream in) {
+        this.in = new BufferedInputStream(in);
+    }
+
+    public void writeTo(final Handler<SailConnectionCall, SailException> handler) throws SailException {
+        try {
+            try {
+                BinaryValueInput header = new BinaryValueInput(in, SimpleValueFactory.getInstance());
+                if (!BinaryCallWriter.MAGIC.equals(header.readString())
+                        || BinaryCallWriter.FORMAT_VERSION != header.readVarLong()) {
+                    throw new IOException("not a binary replay log");
+                }
+                long maxValues = header.readVarLong();
+                if (maxValues > Integer.MAX_VALUE) {
+                    throw new IOException("bad value limit: " + maxValues);
+                }
+
+                BinaryValueInput input = new BinaryValueInput(in, SimpleValueFactory.getInstance(), (int) maxValues);
+                SailConnectionCall call;
+                while (null != (call = SailConnectionCall.read(input))) {
+                    handler.handle(call);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new SailException(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package net.fortytwo.sesametools.replay;
+
+import net.fortytwo.sesametools.BinaryValueOutput;
+import org.eclipse.rdf4j.sail.SailException;
+
+import java.io.BufferedOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A handler which writes calls to a stream in a compact binary format, for use with <code>RecorderSail</code>.
+ * Call types, connection ids and iteration indexes are written as variable-length integers,
+ * and each distinct RDF value is written in full only once, then referred to by number.
+ * The log is read by <code>BinaryCallSource</code>.
+ * Output is buffered, so the writer must be flushed or closed for the log to be complete.
+ * For asynchronous recording, the writer may be wrapped in an <code>AsyncHandler</code>, which also flushes it.
+ * This class is thread-safe.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net).
+ */
+public class BinaryCallWriter implements Handler<SailConnectionCall, SailException>, Flushable {
+    static final String MAGIC = "sesametools-replay-log";
+    static final long FORMAT_VERSION = 1;
+
+    /**
+     * The default maximum number of distinct values remembered for reference
+     */
+    public static final int DEFAULT_MAX_VALUES = 1 << 20;
+
+    private final OutputStream out;
+    private final BinaryValueOutput encoder;
+
+    /**
+     * @param out       the stream to which to write
+     * @param maxValues the maximum number of distinct values to remember, bounding the memory used
+     *                  by both the writer and the reader. Values beyond this number are always written in full.
+     */
+    public BinaryCallWriter(final OutputStream out, final int maxValues) throws SailException {
+        this.out = new BufferedOutputStream(out);
+        encoder = new BinaryValueOutput(this.out, maxValues);
+
+        try {
+            encoder.writeString(MAGIC);
+            encoder.writeVarLong(FORMAT_VERSION);
+            encoder.writeVarLong(maxValues);
+        } catch (IOException e) {
+            throw new SailException(e);
+        }
+    }
+
+    public BinaryCallWriter(final OutputStream out) throws SailException {
+        this(out, DEFAULT_MAX_VALUES);
+    }
+
+    public synchronized void handle(final SailConnectionCall call) throws SailException {
+        try {
+            call.write(encoder);
+        } catch (IOException e) {
+            throw new SailException(e);
+        }
+    }
+
+    public synchronized void flush() throws SailException {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new SailException(e);
+        }
+    }
+
+    public synchronized void close() throws SailException {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new SailException(e);
+        }
+    }
+}
@@ -23,13 +23,25 @@ public class RecorderSail extends AbstractSail implements StackableSail {
     private final ReplayConfiguration config;
     private final Handler<SailConnectionCall, SailException> queryHandler;
 
+    /**
+     * @param baseSail     the Sail whose operations are recorded
+     * @param queryHandler a handler for recorded calls
+     * @param config       settings which determine which operations are recorded.
+     *                     These may be changed while the Sail is in use.
+     */
     public RecorderSail(final Sail baseSail,
-                        final Handler<SailConnectionCall, SailException> queryHandler) {
+                        final Handler<SailConnectionCall, SailException> queryHandler,
+                        final ReplayConfiguration config) {
         this.baseSail = baseSail;
-        config = new ReplayConfiguration();
+        this.config = config;
 
         this.queryHandler = queryHandler;
     }
+
+    public RecorderSail(final Sail baseSail,
+                        final Handler<SailConnectionCall, SailException> queryHandler) {
+        this(baseSail, queryHandler, new ReplayConfiguration());
+    }
     
     public RecorderSail(final Sail baseSail, final OutputStream out) {
         this(baseSail, createDefaultHandler(out));
@@ -86,6 +98,10 @@ public class RecorderSail extends AbstractSail implements StackableSail {
         return baseSail;
     }
 
+    /**
+     * @return the settings which determine which operations are recorded,
+     * and which may be changed while the Sail is in use
+     */
     public ReplayConfiguration getConfiguration() {
         return config;
     }
@@ -33,14 +33,17 @@ import org.eclipse.rdf4j.sail.SailException;
 import org.eclipse.rdf4j.sail.helpers.AbstractSail;
 import org.eclipse.rdf4j.sail.helpers.AbstractSailConnection;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author Joshua Shinavier (http://fortytwo.net).
  */
 public class RecorderSailConnection extends AbstractSailConnection {
-    private final String id = Integer.toString(new Random().nextInt(0xFFFF));
+    private final String id = Integer.toString(ThreadLocalRandom.current().nextInt(0xFFFF));
     private final Handler<SailConnectionCall, SailException> queryHandler;
+    private final ReplayConfiguration config;
+    // whether this connection was chosen for recording when it was opened
+    private final boolean sampled;
     private final SailConnection baseSailConnection;
     private int iterationCount = 0;
 
@@ -50,7 +53,9 @@ public class RecorderSailConnection extends AbstractSailConnection {
                                   final Handler<SailConnectionCall, SailException> queryHandler) throws SailException {
         super(sail);
         this.queryHandler = queryHandler;
-        if (ReplayConfiguration.LOG_TRANSACTIONS) {
+        this.config = config;
+        sampled = config.sampleConnection();
+        if (logTransactions()) {
             queryHandler.handle(new ConstructorCall(id));
         }
         this.baseSailConnection = baseSail.getConnection();
@@ -62,7 +67,7 @@ public class RecorderSailConnection extends AbstractSailConnection {
                              final IRI pred,
                              final Value obj,
                              final Resource... contexts) throws SailException {
-        if (ReplayConfiguration.LOG_WRITE_OPERATIONS) {
+        if (logWrites()) {
             queryHandler.handle(new AddStatementCall(id, subj, pred, obj, contexts));
         }
         baseSailConnection.addStatement(subj, pred, obj, contexts);
@@ -71,28 +76,28 @@ public class RecorderSailConnection extends AbstractSailConnection {
     // Note: clearing statements does not change the configuration of cached
     // values.
     protected void clearInternal(final Resource... contexts) throws SailException {
-        if (ReplayConfiguration.LOG_WRITE_OPERATIONS) {
+        if (logWrites()) {
             queryHandler.handle(new ClearCall(id, contexts));
         }
         baseSailConnection.clear(contexts);
     }
 
     protected void clearNamespacesInternal() throws SailException {
-        if (ReplayConfiguration.LOG_WRITE_OPERATIONS) {
+        if (logWrites()) {
             queryHandler.handle(new ClearNamespacesCall(id));
         }
         baseSailConnection.clearNamespaces();
     }
 
     protected void closeInternal() throws SailException {
-        if (ReplayConfiguration.LOG_TRANSACTIONS) {
+        if (logTransactions()) {
             queryHandler.handle(new CloseConnectionCall(id));
         }
         baseSailConnection.close();
     }
 
     protected void commitInternal() throws SailException {
-        if (ReplayConfiguration.LOG_TRANSACTIONS) {
+        if (logTransactions()) {
             queryHandler.handle(new CommitCall(id));
         }
         baseSailConnection.commit();
@@ -103,7 +108,7 @@ public class RecorderSailConnection extends AbstractSailConnection {
             final boolean includeInferred)
             throws SailException {
         // Note: there is no recording iterator for evaluate() results
-        if (ReplayConfiguration.LOG_READ_OPERATIONS) {
+        if (logRead()) {
             queryHandler.handle(new EvaluateCall(id, includeInferred));
         }
         return baseSailConnection.evaluate(tupleExpr, dataSet, bindingSet, includeInferred);
@@ -111,15 +116,28 @@ public class RecorderSailConnection extends AbstractSailConnection {
 
     protected CloseableIteration<? extends Resource, SailException> getContextIDsInternal()
             throws SailException {
-        if (ReplayConfiguration.LOG_READ_OPERATIONS) {
+        if (logRead()) {
             queryHandler.handle(new GetContextIDsCall(id));
-            return new RecorderIteration<>(
-                    (CloseableIteration<Resource, SailException>) baseSailConnection.getContextIDs(),
-                    nextIterationId(),
-                    queryHandler);
-        } else {
-            return baseSailConnection.getContextIDs();
+            if (config.isLogIterations()) {
+                return new RecorderIteration<>(
+                        (CloseableIteration<Resource, SailException>) baseSailConnection.getContextIDs(),
+                        nextIterationId(),
+                        queryHandler);
+            }
         }
+        return baseSailConnection.getContextIDs();
+    }
+
+    private boolean logTransactions() {
+        return sampled && config.isLogTransactions();
+    }
+
+    private boolean logWrites() {
+        return sampled && config.isLogWriteOperations();
+    }
+
+    private boolean logRead() {
+        return sampled && config.sampleRead();
     }
 
     private String nextIterationId() {
@@ -128,7 +146,7 @@ public class RecorderSailConnection extends AbstractSailConnection {
     }
 
     protected String getNamespaceInternal(final String prefix) throws SailException {
-        if (ReplayConfiguration.LOG_READ_OPERATIONS) {
+        if (logRead()) {
             queryHandler.handle(new GetNamespaceCall(id, prefix));
         }
         return baseSailConnection.getNamespace(prefix);
@@ -136,35 +154,37 @@ public class RecorderSailConnection extends AbstractSailConnection {
 
     protected CloseableIteration<? extends Namespace, SailException> getNamespacesInternal()
             throws SailException {
-        if (ReplayConfiguration.LOG_READ_OPERATIONS) {
+        if (logRead()) {
             queryHandler.handle(new GetNamespacesCall(id));
-            return new RecorderIteration<>(
-                    (CloseableIteration<Namespace, SailException>) baseSailConnection.getNamespaces(),
-                    nextIterationId(),
-                    queryHandler);
-        } else {
-            return baseSailConnection.getNamespaces();
+            if (config.isLogIterations()) {
+                return new RecorderIteration<>(
+                        (CloseableIteration<Namespace, SailException>) baseSailConnection.getNamespaces(),
+                        nextIterationId(),
+                        queryHandler);
+            }
         }
+        return baseSailConnection.getNamespaces();
     }
 
     protected CloseableIteration<? extends Statement, SailException> getStatementsInternal(
             final Resource subj, final IRI pred, final Value obj, final boolean includeInferred,
             final Resource... contexts) throws SailException {
 
-        if (ReplayConfiguration.LOG_READ_OPERATIONS) {
+        if (logRead()) {
             queryHandler.handle(new GetStatementsCall(id, subj, pred, obj, includeInferred, contexts));
-            return new RecorderIteration<>(
-                    (CloseableIteration<Statement, SailException>) baseSailConnection.getStatements(
-                            subj, pred, obj, includeInferred, contexts),
-                    nextIterationId(),
-                    queryHandler);
-        } else {
-            return baseSailConnection.getStatements(subj, pred, obj, includeInferred, contexts);
+            if (config.isLogIterations()) {
+                return new RecorderIteration<>(
+                        (CloseableIteration<Statement, SailException>) baseSailConnection.getStatements(
+                                subj, pred, obj, includeInferred, contexts),
+                        nextIterationId(),
+                        queryHandler);
+            }
         }
+        return baseSailConnection.getStatements(subj, pred, obj, includeInferred, contexts);
     }
 
     protected void removeNamespaceInternal(final String prefix) throws SailException {
-        if (ReplayConfiguration.LOG_WRITE_OPERATIONS) {
+        if (logWrites()) {
             queryHandler.handle(new RemoveNamespaceCall(id, prefix));
         }
         baseSailConnection.removeNamespace(prefix);
@@ -174,35 +194,35 @@ public class RecorderSailConnection extends AbstractSailConnection {
                                  final IRI pred,
                                  final Value obj,
                                  final Resource... contexts) throws SailException {
-        if (ReplayConfiguration.LOG_WRITE_OPERATIONS) {
+        if (logWrites()) {
             queryHandler.handle(new RemoveStatementsCall(id, subj, pred, obj, contexts));
         }
         baseSailConnection.removeStatements(subj, pred, obj, contexts);
     }
 
     protected void rollbackInternal() throws SailException {
-        if (ReplayConfiguration.LOG_TRANSACTIONS) {
+        if (logTransactions()) {
             queryHandler.handle(new RollbackCall(id));
         }
         baseSailConnection.rollback();
     }
 
     protected void setNamespaceInternal(final String prefix, final String name) throws SailException {
-        if (ReplayConfiguration.LOG_WRITE_OPERATIONS) {
+        if (logWrites()) {
             queryHandler.handle(new SetNamespaceCall(id, prefix, name));
         }
         baseSailConnection.setNamespace(prefix, name);
     }
 
     protected long sizeInternal(final Resource... contexts) throws SailException {
-        if (ReplayConfiguration.LOG_READ_OPERATIONS) {
+        if (logRead()) {
             queryHandler.handle(new SizeCall(id, contexts));
         }
         return baseSailConnection.size(contexts);
     }
 
     protected void startTransactionInternal() throws SailException {
-        if (ReplayConfiguration.LOG_TRANSACTIONS) {
+        if (logTransactions()) {
             queryHandler.handle(new BeginCall(id));
         }
         baseSailConnection.begin();
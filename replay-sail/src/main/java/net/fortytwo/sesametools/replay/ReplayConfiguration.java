@@ -1,10 +1,126 @@
 package net.fortytwo.sesametools.replay;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
+ * Settings which determine which operations a <code>RecorderSail</code> records.
+ * All settings may be changed while the Sail is in use, and take effect for subsequent operations.
+ * Whether a connection is sampled is decided once, when the connection is opened,
+ * and whether the calls of an iteration are recorded is decided when the iteration is created.
+ * Sampling of read operations does not affect playback of writes,
+ * whereas disabling transaction or write logging generally makes a log impossible to play back faithfully.
+ *
  * @author Joshua Shinavier (http://fortytwo.net).
  */
 public class ReplayConfiguration {
+    /**
+     * @deprecated the default for <code>isLogTransactions</code>; use the instance settings instead
+     */
+    @Deprecated
     public static final boolean LOG_TRANSACTIONS = true;
+    /**
+     * @deprecated the default for <code>isLogReadOperations</code>; use the instance settings instead
+     */
+    @Deprecated
     public static final boolean LOG_READ_OPERATIONS = true;
+    /**
+     * @deprecated the default for <code>isLogWriteOperations</code>; use the instance settings instead
+     */
+    @Deprecated
     public static final boolean LOG_WRITE_OPERATIONS = true;
+
+    private volatile boolean logTransactions = LOG_TRANSACTIONS;
+    private volatile boolean logReadOperations = LOG_READ_OPERATIONS;
+    private volatile boolean logWriteOperations = LOG_WRITE_OPERATIONS;
+    private volatile boolean logIterations = true;
+    private volatile double connectionSamplingRate = 1.0;
+    private volatile double readSamplingRate = 1.0;
+
+    /**
+     * @return whether connections, transactions, commits and rollbacks are recorded
+     */
+    public boolean isLogTransactions() {
+        return logTransactions;
+    }
+
+    public void setLogTransactions(final boolean logTransactions) {
+        this.logTransactions = logTransactions;
+    }
+
+    /**
+     * @return whether read operations, such as <code>getStatements</code> and <code>size</code>, are recorded
+     */
+    public boolean isLogReadOperations() {
+        return logReadOperations;
+    }
+
+    public void setLogReadOperations(final boolean logReadOperations) {
+        this.logReadOperations = logReadOperations;
+    }
+
+    /**
+     * @return whether write operations, such as <code>addStatement</code> and <code>setNamespace</code>,
+     * are recorded
+     */
+    public boolean isLogWriteOperations() {
+        return logWriteOperations;
+    }
+
+    public void setLogWriteOperations(final boolean logWriteOperations) {
+        this.logWriteOperations = logWriteOperations;
+    }
+
+    /**
+     * @return whether the <code>hasNext</code>, <code>next</code> and <code>close</code> calls
+     * of iterations created by recorded read operations are recorded.
+     * If not, iterations are passed through without a recording wrapper.
+     */
+    public boolean isLogIterations() {
+        return logIterations;
+    }
+
+    public void setLogIterations(final boolean logIterations) {
+        this.logIterations = logIterations;
+    }
+
+    /**
+     * @return the probability, from 0 to 1, with which a newly opened connection is recorded at all
+     */
+    public double getConnectionSamplingRate() {
+        return connectionSamplingRate;
+    }
+
+    public void setConnectionSamplingRate(final double connectionSamplingRate) {
+        this.connectionSamplingRate = checkRate(connectionSamplingRate);
+    }
+
+    /**
+     * @return the probability, from 0 to 1, with which a read operation of a recorded connection is recorded
+     */
+    public double getReadSamplingRate() {
+        return readSamplingRate;
+    }
+
+    public void setReadSamplingRate(final double readSamplingRate) {
+        this.readSamplingRate = checkRate(readSamplingRate);
+    }
+
+    boolean sampleConnection() {
+        return sample(connectionSamplingRate);
+    }
+
+    boolean sampleRead() {
+        return logReadOperations && sample(readSamplingRate);
+    }
+
+    private static boolean sample(final double rate) {
+        return rate >= 1.0 || (rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    private static double checkRate(final double rate) {
+        if (!(rate >= 0.0 && rate <= 1.0)) {
+            throw new IllegalArgumentException("sampling rate must be between 0 and 1: " + rate);
+        }
+        return rate;
+    }
 }
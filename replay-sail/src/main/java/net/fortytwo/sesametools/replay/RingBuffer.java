@@ -0,0 +1,113 @@
+package net.fortytwo.sesametools.replay;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for many producers and a single consumer.
+ * Each slot carries a sequence number which tells producers whether it is free and the consumer whether it is full,
+ * so that producers contend only on a single compare-and-set of the tail, and the consumer not at all.
+ *
+ * @author Joshua Shinavier (http://fortytwo.net).
+ */
+class RingBuffer<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong(0);
+    // read and written only by the consumer
+    private long head = 0;
+    // the head as last published by the consumer, for other threads
+    private volatile long publishedHead = 0;
+
+    /**
+     * @param capacity the maximum number of elements, which is rounded up to a power of two
+     */
+    RingBuffer(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("bad capacity: " + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        mask = size - 1;
+        slots = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * May be called by any thread
+     *
+     * @return whether the element was added, i.e. whether the buffer was not full
+     */
+    boolean offer(final T element) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long dif = sequences.get(index) - pos;
+            if (0 == dif) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.lazySet(index, element);
+                    // publishes the element to the consumer
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (dif < 0) {
+                return false;
+            }
+            // otherwise, another producer has claimed the slot; try again
+        }
+    }
+
+    /**
+     * May be called only by the consumer thread
+     *
+     * @return the next element, or <code>null</code> if the buffer is empty
+     */
+    T poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+
+        T element = slots.get(index);
+        slots.lazySet(index, null);
+        // frees the slot for the producer which will wrap around to it
+        sequences.set(index, head + mask + 1);
+        publishedHead = ++head;
+        return element;
+    }
+
+    /**
+     * @return the number of elements which have been added so far
+     */
+    long added() {
+        return tail.get();
+    }
+
+    /**
+     * @return the number of elements which have been removed so far
+     */
+    long removed() {
+        return publishedHead;
+    }
+
+    /**
+     * @return the approximate number of elements in the buffer
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - publishedHead);
+    }
+}
@@ -1,6 +1,8 @@
 
 package net.fortytwo.sesametools.replay;
 
+import net.fortytwo.sesametools.BinaryValueInput;
+import net.fortytwo.sesametools.BinaryValueOutput;
 import net.fortytwo.sesametools.Formatting;
 import net.fortytwo.sesametools.replay.calls.AddStatementCall;
 import net.fortytwo.sesametools.replay.calls.BeginCall;
@@ -33,6 +35,7 @@ import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
 import org.eclipse.rdf4j.sail.SailException;
 
+import java.io.IOException;
 import java.util.StringTokenizer;
 
 /**
@@ -46,6 +49,7 @@ public abstract class SailConnectionCall<T, R> {
 
     private static ValueFactory valueFactory = SimpleValueFactory.getInstance();
 
+    // the binary format identifies types by ordinal, so new types must be added at the end
     public enum Type {
         ADD_STATEMENT,
         BEGIN,
@@ -140,6 +144,99 @@ public abstract class SailConnectionCall<T, R> {
         }
     }
 
+    /**
+     * Writes this call in the binary format read by <code>read</code>:
+     * the type, the connection id and the iteration index, if any, followed by the arguments of the call
+     */
+    public void write(final BinaryValueOutput out) throws IOException {
+        out.writeVarLong(type.ordinal());
+
+        int i = id.indexOf("-");
+        if (i < 0) {
+            out.writeVarLong(Long.parseLong(id));
+            out.writeVarLong(0);
+        } else {
+            out.writeVarLong(Long.parseLong(id.substring(0, i)));
+            out.writeVarLong(Long.parseLong(id.substring(i + 1)));
+        }
+
+        writeArguments(out);
+    }
+
+    /**
+     * Writes the arguments of this call, if any, in the binary format
+     */
+    protected void writeArguments(final BinaryValueOutput out) throws IOException {
+    }
+
+    /**
+     * Reads a call written by <code>write</code>
+     *
+     * @return the next call, or <code>null</code> at the end of the input
+     */
+    public static SailConnectionCall read(final BinaryValueInput in) throws IOException {
+        long ordinal = in.readVarLong(-1);
+        if (ordinal < 0) {
+            return null;
+        } else if (ordinal >= Type.values().length) {
+            throw new IOException("bad call type: " + ordinal);
+        }
+
+        Type type = Type.values()[(int) ordinal];
+        long connectionId = in.readVarLong();
+        long iterationIndex = in.readVarLong();
+        String id = 0 == iterationIndex
+                ? Long.toString(connectionId)
+                : connectionId + "-" + iterationIndex;
+
+        switch (type) {
+            case ADD_STATEMENT:
+                return new AddStatementCall(id, type, in);
+            case BEGIN:
+                return new BeginCall(id);
+            case CLEAR:
+                return new ClearCall(id, type, in);
+            case CLEAR_NAMESPACES:
+                return new ClearNamespacesCall(id);
+            case CLOSE_CONNECTION:
+                return new CloseConnectionCall(id);
+            case CLOSE_ITERATION:
+                return new CloseIterationCall(id);
+            case COMMIT:
+                return new CommitCall(id);
+            case CONSTRUCT:
+                return new ConstructorCall(id);
+            case EVALUATE:
+                return new EvaluateCall(id, type, in);
+            case GET_CONTEXT_IDS:
+                return new GetContextIDsCall(id);
+            case GET_NAMESPACE:
+                return new GetNamespaceCall(id, type, in);
+            case GET_NAMESPACES:
+                return new GetNamespacesCall(id);
+            case GET_STATEMENTS:
+                return new GetStatementsCall(id, type, in);
+            case HAS_NEXT:
+                return new HasNextCall(id);
+            case NEXT:
+                return new NextCall(id);
+            case REMOVE:
+                return new RemoveCall(id);
+            case REMOVE_NAMESPACE:
+                return new RemoveNamespaceCall(id, type, in);
+            case REMOVE_STATEMENTS:
+                return new RemoveStatementsCall(id, type, in);
+            case ROLLBACK:
+                return new RollbackCall(id);
+            case SET_NAMESPACE:
+                return new SetNamespaceCall(id, type, in);
+            case SIZE:
+                return new SizeCall(id, type, in);
+            default:
+                throw new IOException("bad call type: " + type);
+        }
+    }
+
     protected IRI parseIRI(final String s) {
         if (s.equals("null")) {
             return null;
@@ -263,4 +360,45 @@ public abstract class SailConnectionCall<T, R> {
         return sb.toString();
     }
 
+    protected void writeBoolean(final BinaryValueOutput out, final boolean v) throws IOException {
+        out.writeByte(v ? 1 : 0);
+    }
+
+    protected boolean readBoolean(final BinaryValueInput in) throws IOException {
+        return 0 != in.readByte();
+    }
+
+    protected void writeString(final BinaryValueOutput out, final String v) throws IOException {
+        if (null == v) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            out.writeString(v);
+        }
+    }
+
+    protected String readString(final BinaryValueInput in) throws IOException {
+        return 0 == in.readByte() ? null : in.readString();
+    }
+
+    protected void writeContexts(final BinaryValueOutput out, final Resource[] v) throws IOException {
+        out.writeVarLong(v.length);
+        for (Resource ctx : v) {
+            out.writeValue(ctx);
+        }
+    }
+
+    protected Resource[] readContexts(final BinaryValueInput in) throws IOException {
+        long length = in.readVarLong();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("too many contexts: " + length);
+        }
+
+        Resource[] contexts = new Resource[(int) length];
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = (Resource) in.readValue();
+        }
+
+        return contexts;
+    }
 }
@@ -1,11 +1,14 @@
 
 package net.fortytwo.sesametools.replay.calls;
 
+import net.fortytwo.sesametools.BinaryValueInput;
+import net.fortytwo.sesametools.BinaryValueOutput;
 import net.fortytwo.sesametools.replay.SailConnectionCall;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.SailException;
 
+import java.io.IOException;
 import java.util.StringTokenizer;
 
 /**
@@ -35,6 +38,18 @@ public class ClearCall extends SailConnectionCall<SailConnection, Object> {
         this.contexts = parseContexts(tok.nextToken());
     }
 
+    public ClearCall(final String id,
+                     final Type type,
+                     final BinaryValueInput in) throws IOException {
+        super(id, type);
+        this.contexts = readContexts(in);
+    }
+
+    @Override
+    protected void writeArguments(final BinaryValueOutput out) throws IOException {
+        writeContexts(out, contexts);
+    }
+
     public Object execute(final SailConnection sc) throws SailException {
         sc.clear(contexts);
         return null;
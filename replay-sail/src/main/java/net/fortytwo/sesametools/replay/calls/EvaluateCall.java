@@ -3,10 +3,13 @@ package net.fortytwo.sesametools.replay.calls;
 
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import net.fortytwo.sesametools.EmptyCloseableIteration;
+import net.fortytwo.sesametools.BinaryValueInput;
+import net.fortytwo.sesametools.BinaryValueOutput;
 import net.fortytwo.sesametools.replay.SailConnectionCall;
 import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.SailException;
 
+import java.io.IOException;
 import java.util.StringTokenizer;
 
 /**
@@ -36,6 +39,18 @@ public class EvaluateCall extends SailConnectionCall<SailConnection, CloseableIt
         this.includeInferred = parseBoolean(tok.nextToken());
     }
 
+    public EvaluateCall(final String id,
+                        final Type type,
+                        final BinaryValueInput in) throws IOException {
+        super(id, type);
+        this.includeInferred = readBoolean(in);
+    }
+
+    @Override
+    protected void writeArguments(final BinaryValueOutput out) throws IOException {
+        writeBoolean(out, includeInferred);
+    }
+
     public CloseableIteration execute(final SailConnection sc) throws SailException {
         // not enough information to reconstruct an evaluate call
         return new EmptyCloseableIteration();
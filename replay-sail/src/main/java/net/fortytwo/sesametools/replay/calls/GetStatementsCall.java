@@ -1,6 +1,8 @@
 
 package net.fortytwo.sesametools.replay.calls;
 
+import net.fortytwo.sesametools.BinaryValueInput;
+import net.fortytwo.sesametools.BinaryValueOutput;
 import net.fortytwo.sesametools.replay.SailConnectionCall;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.model.Resource;
@@ -9,6 +11,7 @@ import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.SailException;
 
+import java.io.IOException;
 import java.util.StringTokenizer;
 
 /**
@@ -58,6 +61,26 @@ public class GetStatementsCall extends SailConnectionCall<SailConnection, Closea
         this.contexts = parseContexts(tok.nextToken());
     }
 
+    public GetStatementsCall(final String id,
+                             final Type type,
+                             final BinaryValueInput in) throws IOException {
+        super(id, type);
+        this.subject = (Resource) in.readValue();
+        this.predicate = (IRI) in.readValue();
+        this.object = in.readValue();
+        this.includeInferred = readBoolean(in);
+        this.contexts = readContexts(in);
+    }
+
+    @Override
+    protected void writeArguments(final BinaryValueOutput out) throws IOException {
+        out.writeValue(subject);
+        out.writeValue(predicate);
+        out.writeValue(object);
+        writeBoolean(out, includeInferred);
+        writeContexts(out, contexts);
+    }
+
     public CloseableIteration execute(final SailConnection sc) throws SailException {
         return sc.getStatements(subject, predicate, object, includeInferred, contexts);
     }
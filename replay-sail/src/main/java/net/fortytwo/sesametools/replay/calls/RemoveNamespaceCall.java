@@ -1,10 +1,13 @@
 
 package net.fortytwo.sesametools.replay.calls;
 
+import net.fortytwo.sesametools.BinaryValueInput;
+import net.fortytwo.sesametools.BinaryValueOutput;
 import net.fortytwo.sesametools.replay.SailConnectionCall;
 import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.SailException;
 
+import java.io.IOException;
 import java.util.StringTokenizer;
 
 /**
@@ -33,6 +36,18 @@ public class RemoveNamespaceCall extends SailConnectionCall<SailConnection, Obje
         this.prefix = parseString(tok.nextToken());
     }
 
+    public RemoveNamespaceCall(final String id,
+                               final Type type,
+                               final BinaryValueInput in) throws IOException {
+        super(id, type);
+        this.prefix = readString(in);
+    }
+
+    @Override
+    protected void writeArguments(final BinaryValueOutput out) throws IOException {
+        writeString(out, prefix);
+    }
+
     public Object execute(final SailConnection sc) throws SailException {
         sc.removeNamespace(prefix);
         return null;
@@ -1,6 +1,8 @@
 
 package net.fortytwo.sesametools.replay.calls;
 
+import net.fortytwo.sesametools.BinaryValueInput;
+import net.fortytwo.sesametools.BinaryValueOutput;
 import net.fortytwo.sesametools.replay.SailConnectionCall;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
@@ -8,6 +10,7 @@ import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.SailException;
 
+import java.io.IOException;
 import java.util.StringTokenizer;
 
 /**
@@ -52,6 +55,24 @@ public class RemoveStatementsCall extends SailConnectionCall<SailConnection, Obj
         this.contexts = parseContexts(tok.nextToken());
     }
 
+    public RemoveStatementsCall(final String id,
+                                final Type type,
+                                final BinaryValueInput in) throws IOException {
+        super(id, type);
+        this.subject = (Resource) in.readValue();
+        this.predicate = (IRI) in.readValue();
+        this.object = in.readValue();
+        this.contexts = readContexts(in);
+    }
+
+    @Override
+    protected void writeArguments(final BinaryValueOutput out) throws IOException {
+        out.writeValue(subject);
+        out.writeValue(predicate);
+        out.writeValue(object);
+        writeContexts(out, contexts);
+    }
+
     public Object execute(final SailConnection sc) throws SailException {
         sc.removeStatements(subject, predicate, object, contexts);
         return null;
@@ -1,10 +1,13 @@
 
 package net.fortytwo.sesametools.replay.calls;
 
+import net.fortytwo.sesametools.BinaryValueInput;
+import net.fortytwo.sesametools.BinaryValueOutput;
 import net.fortytwo.sesametools.replay.SailConnectionCall;
 import org.eclipse.rdf4j.sail.SailConnection;
 import org.eclipse.rdf4j.sail.SailException;
 
+import java.io.IOException;
 import java.util.StringTokenizer;
 
 /**
@@ -38,6 +41,20 @@ public class SetNamespaceCall extends SailConnectionCall<SailConnection, Object>
         this.uri = parseString(tok.nextToken());
     }
 
+    public SetNamespaceCall(final String id,
+                            final Type type,
+                            final BinaryValueInput in) throws IOException {
+        super(id, type);
+        this.prefix = readString(in);
+        this.uri = readString(in);
+    }
+
+    @Override
+    protected void writeArguments(final BinaryValueOutput out) throws IOException {
+        writeString(out, prefix);
+        writeString(out, uri);
+    }
+
     public Object execute(final SailConnection sc) throws SailException {
         sc.setNamespace(prefix, uri);
         return null;
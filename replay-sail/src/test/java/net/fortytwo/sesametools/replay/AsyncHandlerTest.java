@@ -0,0 +1,119 @@
+package net.fortytwo.sesametools.replay;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Joshua Shinavier (http://fortytwo.net).
+ */
+public class AsyncHandlerTest {
+
+    @Test
+    public void testRingBuffer() throws Exception {
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(buffer.offer(i));
+            }
+            assertEquals(false, buffer.offer(4));
+            assertEquals(4, buffer.size());
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i, (int) buffer.poll());
+            }
+            assertNull(buffer.poll());
+        }
+        assertEquals(12, buffer.added());
+        assertEquals(12, buffer.removed());
+    }
+
+    @Test
+    public void testBlockingPolicyKeepsAllCalls() throws Exception {
+        // calls are handled on the writer thread only
+        List<int[]> handled = new ArrayList<>();
+        AtomicInteger flushes = new AtomicInteger(0);
+        AsyncHandler<int[]> handler = new AsyncHandler<>(handled::add, flushes::incrementAndGet,
+                8, AsyncHandler.OverflowPolicy.BLOCK, AsyncHandler.DEFAULT_SAMPLE_INTERVAL);
+
+        int producers = 4;
+        int callsPerProducer = 1000;
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < callsPerProducer; i++) {
+                    handler.handle(new int[]{producer, i});
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        handler.flush();
+        assertEquals(producers * callsPerProducer, handled.size());
+        assertTrue(flushes.get() > 0);
+        handler.close();
+
+        // the calls of each producer are handled in order
+        int[] next = new int[producers];
+        for (int[] call : handled) {
+            assertEquals(next[call[0]]++, call[1]);
+        }
+        assertEquals(0, handler.getDropped());
+        assertEquals(producers * callsPerProducer, handler.getHandled());
+    }
+
+    @Test
+    public void testDroppingPolicy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger handled = new AtomicInteger(0);
+        AsyncHandler<Integer> handler = new AsyncHandler<>(i -> {
+            release.await();
+            handled.incrementAndGet();
+        }, null, 4, AsyncHandler.OverflowPolicy.DROP, AsyncHandler.DEFAULT_SAMPLE_INTERVAL);
+
+        // the writer takes at most one call before it blocks, so the rest overflow a buffer of four
+        for (int i = 0; i < 100; i++) {
+            handler.handle(i);
+        }
+        assertTrue(handler.getDropped() >= 95);
+
+        release.countDown();
+        handler.close();
+        assertEquals(100, handled.get() + handler.getDropped());
+    }
+
+    @Test
+    public void testSamplingPolicy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger handled = new AtomicInteger(0);
+        AsyncHandler<Integer> handler = new AsyncHandler<>(i -> {
+            release.await();
+            handled.incrementAndGet();
+        }, null, 64, AsyncHandler.OverflowPolicy.SAMPLE, 10);
+
+        for (int i = 0; i < 1000; i++) {
+            handler.handle(i);
+        }
+
+        release.countDown();
+        handler.close();
+
+        // about half the buffer fills freely; after that, one in ten calls is kept until it is full
+        assertEquals(1000, handled.get() + handler.getDropped());
+        assertTrue(handled.get() > 32 && handled.get() <= 65);
+    }
+}
@@ -0,0 +1,112 @@
+package net.fortytwo.sesametools.replay;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.eclipse.rdf4j.sail.Sail;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Joshua Shinavier (http://fortytwo.net).
+ */
+public class BinaryCallLogTest {
+    private static final String NS = "http://example.org/test/";
+
+    @Test
+    public void testRecordAndPlayBack() throws Exception {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(text);
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        BinaryCallWriter writer = new BinaryCallWriter(binary);
+
+        Sail recorded = new MemoryStore();
+        RecorderSail recorder = new RecorderSail(recorded, call -> {
+            ps.println(call.toString());
+            writer.handle(call);
+        });
+        recorder.initialize();
+        ValueFactory vf = recorder.getValueFactory();
+
+        IRI ctx = vf.createIRI(NS + "ctx");
+        Literal typed = vf.createLiteral("42", XMLSchema.INTEGER);
+        Literal tagged = vf.createLiteral("forty-two\ttab", "en");
+
+        SailConnection sc = recorder.getConnection();
+        try {
+            sc.begin();
+            sc.setNamespace("ex", NS);
+            for (int i = 0; i < 100; i++) {
+                IRI subject = vf.createIRI(NS + "s" + i);
+                sc.addStatement(subject, RDF.TYPE, RDFS.RESOURCE, ctx);
+                sc.addStatement(subject, RDFS.LABEL, 0 == i % 2 ? typed : tagged);
+            }
+            sc.addStatement(vf.createBNode("b1"), RDFS.SEEALSO, RDF.NIL, ctx, null);
+            sc.removeStatements(vf.createIRI(NS + "s0"), null, null);
+            sc.commit();
+
+            int count = 0;
+            try (CloseableIteration<? extends Statement, SailException> iter
+                         = sc.getStatements(null, RDF.TYPE, null, false, ctx)) {
+                while (iter.hasNext()) {
+                    iter.next();
+                    count++;
+                }
+            }
+            assertEquals(99, count);
+        } finally {
+            sc.close();
+        }
+        recorder.shutDown();
+        writer.close();
+        ps.flush();
+
+        assertTrue(binary.size() * 4 < text.size());
+
+        Sail played = new MemoryStore();
+        played.initialize();
+        PlaybackSail playback = new PlaybackSail(played,
+                new BinaryCallSource(new ByteArrayInputStream(binary.toByteArray())));
+        playback.initialize();
+        playback.shutDown();
+
+        sc = played.getConnection();
+        try {
+            assertEquals(200, sc.size());
+            assertEquals(NS, sc.getNamespace("ex"));
+            assertEquals(100, sc.size(ctx));
+            assertEquals(1, count(sc, vf.createIRI(NS + "s1"), tagged));
+            assertEquals(1, count(sc, vf.createIRI(NS + "s2"), typed));
+            assertEquals(0, count(sc, vf.createIRI(NS + "s0"), typed));
+        } finally {
+            sc.close();
+        }
+        played.shutDown();
+    }
+
+    private int count(final SailConnection sc, final IRI subject, final Literal label) throws SailException {
+        int count = 0;
+        try (CloseableIteration<? extends Statement, SailException> iter
+                     = sc.getStatements(subject, RDFS.LABEL, label, false)) {
+            while (iter.hasNext()) {
+                iter.next();
+                count++;
+            }
+        }
+        return count;
+    }
+}
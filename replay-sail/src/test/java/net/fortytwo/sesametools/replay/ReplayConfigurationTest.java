@@ -0,0 +1,179 @@
+package net.fortytwo.sesametools.replay;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Joshua Shinavier (http://fortytwo.net).
+ */
+public class ReplayConfigurationTest {
+    private static final String NS = "http://example.org/test/";
+
+    private final List<SailConnectionCall> calls = new CopyOnWriteArrayList<>();
+    private RecorderSail sail;
+    private ReplayConfiguration config;
+    private IRI subject;
+
+    @Before
+    public void setUp() throws Exception {
+        sail = new RecorderSail(new MemoryStore(), calls::add);
+        sail.initialize();
+        config = sail.getConfiguration();
+
+        ValueFactory vf = sail.getValueFactory();
+        subject = vf.createIRI(NS + "s");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sail.shutDown();
+    }
+
+    @Test
+    public void testDefaultsRecordEverything() throws Exception {
+        SailConnection sc = sail.getConnection();
+        try {
+            addStatement(sc);
+            assertEquals(1, countStatements(sc));
+        } finally {
+            sc.close();
+        }
+
+        assertEquals(1, count(SailConnectionCall.Type.CONSTRUCT));
+        assertEquals(1, count(SailConnectionCall.Type.ADD_STATEMENT));
+        assertEquals(1, count(SailConnectionCall.Type.GET_STATEMENTS));
+        assertEquals(1, count(SailConnectionCall.Type.NEXT));
+        assertEquals(1, count(SailConnectionCall.Type.CLOSE_ITERATION));
+        assertEquals(1, count(SailConnectionCall.Type.CLOSE_CONNECTION));
+    }
+
+    @Test
+    public void testCategoriesToggledAtRuntime() throws Exception {
+        SailConnection sc = sail.getConnection();
+        try {
+            config.setLogIterations(false);
+            addStatement(sc);
+            assertEquals(1, countStatements(sc));
+            assertEquals(1, count(SailConnectionCall.Type.GET_STATEMENTS));
+            assertEquals(0, count(SailConnectionCall.Type.HAS_NEXT));
+            assertEquals(0, count(SailConnectionCall.Type.CLOSE_ITERATION));
+
+            config.setLogReadOperations(false);
+            config.setLogTransactions(false);
+            sc.begin();
+            sc.removeStatements(subject, null, null);
+            sc.commit();
+            assertEquals(0, countStatements(sc));
+            assertEquals(1, count(SailConnectionCall.Type.GET_STATEMENTS));
+            assertEquals(1, count(SailConnectionCall.Type.REMOVE_STATEMENTS));
+            assertEquals(1, count(SailConnectionCall.Type.COMMIT));
+
+            config.setLogWriteOperations(false);
+            addStatement(sc);
+            assertEquals(1, count(SailConnectionCall.Type.ADD_STATEMENT));
+
+            config.setLogReadOperations(true);
+            config.setLogIterations(true);
+            assertEquals(1, countStatements(sc));
+            assertEquals(2, count(SailConnectionCall.Type.GET_STATEMENTS));
+            assertEquals(1, count(SailConnectionCall.Type.CLOSE_ITERATION));
+        } finally {
+            sc.close();
+        }
+        assertEquals(0, count(SailConnectionCall.Type.CLOSE_CONNECTION));
+    }
+
+    @Test
+    public void testConnectionSampling() throws Exception {
+        config.setConnectionSamplingRate(0.0);
+        SailConnection unsampled = sail.getConnection();
+        try {
+            // the decision is made when the connection is opened
+            config.setConnectionSamplingRate(1.0);
+            addStatement(unsampled);
+            countStatements(unsampled);
+        } finally {
+            unsampled.close();
+        }
+        assertTrue(calls.isEmpty());
+
+        SailConnection sampled = sail.getConnection();
+        try {
+            countStatements(sampled);
+        } finally {
+            sampled.close();
+        }
+        assertEquals(1, count(SailConnectionCall.Type.CONSTRUCT));
+        assertEquals(1, count(SailConnectionCall.Type.GET_STATEMENTS));
+    }
+
+    @Test
+    public void testReadSampling() throws Exception {
+        config.setReadSamplingRate(0.5);
+        SailConnection sc = sail.getConnection();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                sc.size();
+            }
+        } finally {
+            sc.close();
+        }
+
+        long sizes = count(SailConnectionCall.Type.SIZE);
+        assertTrue(sizes > 350 && sizes < 650);
+    }
+
+    @Test
+    public void testBadSamplingRate() throws Exception {
+        for (double rate : new double[]{-0.1, 1.1, Double.NaN}) {
+            try {
+                config.setReadSamplingRate(rate);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals(1.0, config.getReadSamplingRate(), 0.0);
+        assertFalse(config.getConnectionSamplingRate() < 1.0);
+    }
+
+    private void addStatement(final SailConnection sc) throws SailException {
+        sc.begin();
+        sc.addStatement(subject, RDF.TYPE, RDFS.RESOURCE);
+        sc.commit();
+    }
+
+    private int countStatements(final SailConnection sc) throws SailException {
+        int count = 0;
+        try (CloseableIteration<? extends Statement, SailException> iter
+                     = sc.getStatements(subject, null, null, false)) {
+            while (iter.hasNext()) {
+                iter.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private long count(final SailConnectionCall.Type type) {
+        return calls.stream().filter(call -> call.getType() == type).count();
+    }
+}